@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+# Measures how much a class data sharing archive, as created by the trampolines of
+# GenerateProtoTask.useClassDataSharing, saves on the startup of a .jar protoc plugin.
+#
+# Usage: benchmarks/cds-startup.sh <plugin.jar> <CodeGeneratorRequest file> [runs] [java]
+#
+# A request file can be captured from a build by temporarily replacing a plugin's
+# trampoline with 'cat > /tmp/request.bin'. Any file works for plugins that fail fast on
+# bad input, but then the numbers only cover the JVM and class loading, not generation.
+set -euo pipefail
+
+if [ $# -lt 2 ]; then
+  sed -n '2,9p' "$0" | sed 's/^# \{0,1\}//'
+  exit 1
+fi
+jar=$1
+request=$2
+runs=${3:-20}
+java=${4:-java}
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+archive=$work/plugin.jsa
+options=(-XX:+IgnoreUnrecognizedVMOptions -Xlog:disable -Xlog:all=warning:stderr)
+
+# Runs the plugin $runs times with the given extra JVM options and prints the mean in ms
+measure() {
+  local start end
+  start=$(date +%s%N)
+  for ((i = 0; i < runs; i++)); do
+    "$java" "${options[@]}" "$@" -jar "$jar" < "$request" > /dev/null 2>&1 || true
+  done
+  end=$(date +%s%N)
+  echo $(( (end - start) / runs / 1000000 ))
+}
+
+"$java" -version 2>&1 | head -n 1
+echo "plugin: $jar, $runs runs each"
+# The training run, like the first run of a trampoline
+"$java" "${options[@]}" -XX:ArchiveClassesAtExit="$archive" -jar "$jar" < "$request" > /dev/null 2>&1 || true
+if [ ! -f "$archive" ]; then
+  echo "no archive was created, class data sharing needs Java 13+" >&2
+  exit 1
+fi
+echo "archive: $(( $(wc -c < "$archive") / 1024 )) KiB"
+measure > /dev/null # warm up the file system cache
+cold=$(measure)
+shared=$(measure -XX:SharedArchiveFile="$archive")
+echo "without archive: ${cold} ms/run"
+echo "with archive:    ${shared} ms/run"
+if [ "$cold" -gt 0 ]; then
+  echo "saved:           $(( cold - shared )) ms/run ($(( (cold - shared) * 100 / cold ))%)"
+fi
@@ -0,0 +1,310 @@
+#!/usr/bin/env python3
+# Copyright (c) 2026, Google Inc. All rights reserved.
+#
+# Redistribution and use in source and binary forms, with or without
+# modification, are permitted provided that the following conditions are met:
+#
+# 1. Redistributions of source code must retain the above copyright notice, this
+# list of conditions and the following disclaimer.
+#
+# 2. Redistributions in binary form must reproduce the above copyright notice,
+# this list of conditions and the following disclaimer in the documentation
+# and/or other materials provided with the distribution.
+#
+# 3. Neither the name of the copyright holder nor the names of its contributors
+# may be used to endorse or promote products derived from this software without
+# specific prior written permission.
+#
+# THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+# ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+# WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+# DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+# FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+# DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+# SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+# CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+# OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+# OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+"""Generates a large synthetic multi-project build that uses the protobuf plugin.
+
+The build has:
+- many projects whose protos import the protos of the projects they depend on,
+  forming a deep import graph
+- proto libraries packaged as jars in a local Maven repository, in two versions
+- a number of extra source sets per project, which compile the main protos again,
+  like the variants of an Android project
+
+By default protoc is a stub script that writes an empty Java file per proto, so
+the build runs offline. The build is committed to a git repository with the
+tags used by the gradle-profiler scenarios in performance.scenarios.
+"""
+
+import argparse
+import os
+import shutil
+import stat
+import subprocess
+import sys
+import zipfile
+
+STUB_PROTOC = """#!/bin/sh
+# Stands in for protoc: writes an empty Java file per proto file and an empty
+# descriptor set, so that the build runs without a protoc binary.
+out=""
+for arg in "$@"; do
+  case "$arg" in
+    --java_out=*) out="${arg#--java_out=}"; out="${out#*:}" ;;
+    --descriptor_set_out=*) : > "${arg#--descriptor_set_out=}" ;;
+  esac
+done
+[ -n "$out" ] || exit 0
+mkdir -p "$out"
+for arg in "$@"; do
+  case "$arg" in
+    -*) ;;
+    *.proto)
+      name="${arg##*/}"
+      echo "// Generated from $arg" > "$out/${name%.proto}.java" ;;
+  esac
+done
+"""
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("output", help="the directory of the generated build; must not exist")
+    parser.add_argument("--projects", type=int, default=500, help="number of projects (default: 500)")
+    parser.add_argument("--protos", type=int, default=20000, help="total number of protos (default: 20000)")
+    parser.add_argument("--depth", type=int, default=20,
+                        help="length of the chains of projects importing each other's protos (default: 20)")
+    parser.add_argument("--libraries", type=int, default=20,
+                        help="number of proto libraries packaged as jars (default: 20)")
+    parser.add_argument("--library-protos", type=int, default=50, help="protos per library (default: 50)")
+    parser.add_argument("--variants", type=int, default=4,
+                        help="source sets per project that compile the main protos, like Android variants "
+                             "(default: 4)")
+    parser.add_argument("--plugin-version", required=True, help="version of the protobuf plugin to test")
+    parser.add_argument("--plugin-repo", help="Maven repository with that version, e.g., the build/testRepo "
+                                              "of this repository after ./gradlew test; the Gradle plugin "
+                                              "portal is used otherwise")
+    parser.add_argument("--protoc", help="path of a locally built protoc to use instead of the stub")
+    parser.add_argument("--protobuf-java-version",
+                        help="version of protobuf-java the generated code is compiled with; required with --protoc")
+    args = parser.parse_args()
+    if args.protoc and not args.protobuf_java_version:
+        parser.error("--protoc requires --protobuf-java-version")
+    if os.path.exists(args.output):
+        parser.error("%s already exists" % args.output)
+    return args
+
+
+def write(path, content):
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w") as f:
+        f.write(content)
+
+
+def proto(package, message, imports, imported_messages, extra_field=False):
+    lines = ['syntax = "proto3";', "", "package %s;" % package, ""]
+    lines += ['import "%s";' % i for i in imports]
+    lines += ["", 'option java_multiple_files = true;', "", "message %s {" % message]
+    lines.append("  string id = 1;")
+    for n, imported in enumerate(imported_messages):
+        lines.append("  %s ref%d = %d;" % (imported, n, n + 2))
+    if extra_field:
+        lines.append("  int64 added = %d;" % (len(imported_messages) + 2))
+    lines.append("}")
+    return "\n".join(lines) + "\n"
+
+
+def library_proto_path(lib, n):
+    return "lib%03d/l%03d_m%04d.proto" % (lib, lib, n)
+
+
+def write_libraries(root, args):
+    """Writes the proto libraries as jars of a flat Maven repository, in versions 1.0 and 1.1."""
+    for lib in range(args.libraries):
+        for version in ("1.0", "1.1"):
+            jar = os.path.join(root, "repo", "com", "example", "protos", "lib%03d" % lib, version,
+                               "lib%03d-%s.jar" % (lib, version))
+            os.makedirs(os.path.dirname(jar), exist_ok=True)
+            with zipfile.ZipFile(jar, "w") as z:
+                for n in range(args.library_protos):
+                    imports = [library_proto_path(lib, n - 1)] if n > 0 else []
+                    refs = ["lib%03d.L%03dM%04d" % (lib, lib, n - 1)] if n > 0 else []
+                    z.writestr(library_proto_path(lib, n),
+                               proto("lib%03d" % lib, "L%03dM%04d" % (lib, n), imports, refs, version == "1.1"))
+
+
+def project_name(p):
+    return "p%04d" % p
+
+
+def project_proto_path(p, n):
+    return "%s/%s_m%04d.proto" % (project_name(p), project_name(p), n)
+
+
+def write_project(root, args, p, proto_count):
+    name = project_name(p)
+    # Projects form chains of --depth projects, each depending on the previous one
+    dependency = p - 1 if p % args.depth != 0 else None
+    library = p % args.libraries if args.libraries > 0 else None
+    for n in range(proto_count):
+        imports, refs = [], []
+        if n > 0:
+            imports.append(project_proto_path(p, n - 1))
+            refs.append("%s.%sM%04d" % (name, name.upper(), n - 1))
+        if n == 0 and dependency is not None:
+            imports.append(project_proto_path(dependency, 0))
+            refs.append("%s.%sM%04d" % (project_name(dependency), project_name(dependency).upper(), 0))
+        if n == 0 and library is not None:
+            imports.append(library_proto_path(library, 0))
+            refs.append("lib%03d.L%03dM%04d" % (library, library, 0))
+        write(os.path.join(root, name, "src", "main", "proto", project_proto_path(p, n)),
+              proto(name, "%sM%04d" % (name.upper(), n), imports, refs))
+
+    dependencies = []
+    if dependency is not None:
+        dependencies.append("  implementation project(':%s')" % project_name(dependency))
+    if library is not None:
+        dependencies.append('  implementation "com.example.protos:lib%03d:${protoLibraryVersion}"' % library)
+    if args.protoc:
+        dependencies.append('  implementation "com.google.protobuf:protobuf-java:${protobufJavaVersion}"')
+    variants = ["variant%d" % v for v in range(args.variants)]
+    write(os.path.join(root, name, "build.gradle"), """plugins {
+  id 'java-library'
+  id 'com.google.protobuf'
+}
+
+sourceSets {
+%(source_sets)s
+}
+
+dependencies {
+%(dependencies)s
+}
+
+protobuf {
+  protoc {
+    path = rootProject.file('%(protoc)s').path
+  }
+}
+
+// Runs the generateProto tasks of all source sets, the same in every project
+tasks.register('generateAllProtos') {
+  dependsOn tasks.withType(com.google.protobuf.gradle.GenerateProtoTask)
+}
+""" % {
+        "source_sets": "\n".join("""  %s {
+    proto {
+      srcDir 'src/main/proto'
+    }
+  }""" % v for v in variants),
+        "dependencies": "\n".join(dependencies),
+        "protoc": "tools/protoc" if not args.protoc else os.path.abspath(args.protoc),
+    })
+    # Like Android variants, the variants see the dependencies of main
+    if variants:
+        with open(os.path.join(root, name, "build.gradle"), "a") as f:
+            f.write("\nconfigurations {\n")
+            for v in variants:
+                f.write("  %sImplementation.extendsFrom(implementation)\n" % v)
+            f.write("}\n")
+
+
+def write_root(root, args):
+    plugin_repositories = ["    gradlePluginPortal()"]
+    if args.plugin_repo:
+        plugin_repositories.insert(0, "    maven { url = uri('%s') }" % os.path.abspath(args.plugin_repo))
+    write(os.path.join(root, "settings.gradle"), """pluginManagement {
+  repositories {
+%(repositories)s
+  }
+  plugins {
+    id 'com.google.protobuf' version '%(version)s'
+  }
+}
+
+dependencyResolutionManagement {
+  repositories {
+    maven {
+      url = uri('repo')
+      metadataSources {
+        artifact()
+      }
+    }
+%(maven_central)s  }
+}
+
+rootProject.name = 'large-protobuf-build'
+%(includes)s
+""" % {
+        "repositories": "\n".join(plugin_repositories),
+        "version": args.plugin_version,
+        "maven_central": "    mavenCentral()\n" if args.protoc else "",
+        "includes": "\n".join("include '%s'" % project_name(p) for p in range(args.projects)),
+    })
+    properties = ["protoLibraryVersion=1.0", "org.gradle.parallel=true", "org.gradle.jvmargs=-Xmx4g"]
+    if args.protoc:
+        properties.append("protobufJavaVersion=%s" % args.protobuf_java_version)
+    write(os.path.join(root, "gradle.properties"), "\n".join(properties) + "\n")
+    write(os.path.join(root, ".gitignore"), "build/\n.gradle/\n")
+    if not args.protoc:
+        protoc = os.path.join(root, "tools", "protoc")
+        write(protoc, STUB_PROTOC)
+        os.chmod(protoc, os.stat(protoc).st_mode | stat.S_IXUSR | stat.S_IXGRP | stat.S_IXOTH)
+
+
+def git(root, *args):
+    subprocess.run(["git", "-c", "user.name=generator", "-c", "user.email=generator@example.com"] + list(args),
+                   cwd=root, check=True, stdout=subprocess.DEVNULL)
+
+
+def commit_scenarios(root, args):
+    """Commits the build and the changes the scenarios apply, as tags."""
+    git(root, "init", "-q")
+    git(root, "add", "-A")
+    git(root, "commit", "-q", "-m", "Generated build")
+    git(root, "tag", "base")
+
+    # A proto in the middle of the first chain gets a new field
+    edited = os.path.join(root, project_name(args.depth // 2), "src", "main", "proto",
+                          project_proto_path(args.depth // 2, 0))
+    with open(edited) as f:
+        content = f.read()
+    with open(edited, "w") as f:
+        f.write(content[:content.rindex("}")] + "  int64 edited = 100;\n}\n")
+    git(root, "commit", "-q", "-am", "Edit a proto")
+    git(root, "tag", "proto-edit")
+
+    git(root, "checkout", "-q", "base")
+    properties = os.path.join(root, "gradle.properties")
+    with open(properties) as f:
+        content = f.read()
+    with open(properties, "w") as f:
+        f.write(content.replace("protoLibraryVersion=1.0", "protoLibraryVersion=1.1"))
+    git(root, "commit", "-q", "-am", "Bump the proto libraries")
+    git(root, "tag", "dependency-bump")
+    git(root, "checkout", "-q", "base")
+
+
+def main():
+    args = parse_args()
+    root = os.path.abspath(args.output)
+    os.makedirs(root)
+    try:
+        write_libraries(root, args)
+        protos_per_project = max(1, args.protos // args.projects)
+        for p in range(args.projects):
+            write_project(root, args, p, protos_per_project)
+        write_root(root, args)
+        commit_scenarios(root, args)
+    except BaseException:
+        shutil.rmtree(root, ignore_errors=True)
+        raise
+    print("Generated %d projects with %d protos each in %s" % (args.projects, protos_per_project, root))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle.fakes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A stand-in for protoc that accepts the flags the plugin passes to it, so that the
+ * plugin's own overhead can be measured and tested without generating code:
+ * <ul>
+ *   <li>{@code -I<dir>}, {@code --proto_path=<dir>} and {@code @<file>} response files</li>
+ *   <li>{@code --<name>_out=[<options>:]<dir>} and {@code --<name>_opt=<options>}, where a
+ *   builtin writes a comment file per proto and other names run a plugin given by
+ *   {@code --plugin=protoc-gen-<name>=<path>}, or found on the PATH</li>
+ *   <li>{@code --descriptor_set_out} and {@code --descriptor_set_in}; other flags are ignored</li>
+ * </ul>
+ *
+ * <p>The outputs only depend on the flags and the content of the proto files. Like protoc,
+ * outputs ending with .jar or .zip are written as archives. The plugins are passed a
+ * CodeGeneratorRequest with the files to generate and the parameter only. See
+ * {@link FakeSettings} for the time, memory and failures it simulates.
+ */
+public final class FakeProtoc {
+  private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList(
+      "cpp", "csharp", "java", "kotlin", "objc", "php", "pyi", "python", "ruby", "rust"));
+
+  private final List<String> includeDirs = new ArrayList<>();
+  private final Map<String, String> pluginPaths = new LinkedHashMap<>();
+  // The options and directory of each --*_out flag, by name
+  private final Map<String, String[]> outputs = new LinkedHashMap<>();
+  private final Map<String, String> extraOptions = new LinkedHashMap<>();
+  private final List<String> protoArgs = new ArrayList<>();
+  private String descriptorSetOut;
+  private String descriptorSetIn;
+
+  private FakeProtoc() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    System.exit(run(args, System.err));
+  }
+
+  /**
+   * Runs the fake with the given arguments and returns its exit code. Errors are written
+   * to {@code err}.
+   */
+  static int run(String[] args, PrintStream err) throws IOException, InterruptedException {
+    FakeProtoc protoc = new FakeProtoc();
+    for (String arg : args) {
+      if (arg.startsWith("@")) {
+        for (String line : Files.readAllLines(new File(arg.substring(1)).toPath(), StandardCharsets.UTF_8)) {
+          if (!line.isEmpty()) {
+            protoc.parse(line);
+          }
+        }
+      } else {
+        protoc.parse(arg);
+      }
+    }
+    return protoc.generate(err);
+  }
+
+  private void parse(String arg) {
+    if (arg.startsWith("-I")) {
+      includeDirs.add(arg.substring(2));
+    } else if (arg.startsWith("--proto_path=")) {
+      includeDirs.add(arg.substring("--proto_path=".length()));
+    } else if (arg.startsWith("--plugin=")) {
+      String plugin = arg.substring("--plugin=".length());
+      int equals = plugin.indexOf('=');
+      String name = equals < 0 ? new File(plugin).getName() : plugin.substring(0, equals);
+      pluginPaths.put(name.replaceFirst("^protoc-gen-", ""), equals < 0 ? plugin : plugin.substring(equals + 1));
+    } else if (arg.startsWith("--descriptor_set_out=")) {
+      descriptorSetOut = arg.substring("--descriptor_set_out=".length());
+    } else if (arg.startsWith("--descriptor_set_in=")) {
+      descriptorSetIn = arg.substring("--descriptor_set_in=".length());
+    } else if (arg.startsWith("--") && arg.contains("_out=")) {
+      String name = arg.substring(2, arg.indexOf("_out="));
+      String value = arg.substring(arg.indexOf("_out=") + "_out=".length());
+      // Options end at the last colon that is not part of a Windows drive
+      int colon = value.lastIndexOf(':');
+      if (colon == 1 && value.length() > 2 && (value.charAt(2) == '\\' || value.charAt(2) == '/')) {
+        colon = -1;
+      } else if (colon > 1 && value.charAt(colon - 2) == ':') {
+        colon -= 2;
+      }
+      outputs.put(name, colon < 0 ? new String[] {"", value} : new String[] {
+        value.substring(0, colon), value.substring(colon + 1),
+      });
+    } else if (arg.startsWith("--") && arg.contains("_opt=")) {
+      String name = arg.substring(2, arg.indexOf("_opt="));
+      String options = arg.substring(arg.indexOf("_opt=") + "_opt=".length());
+      extraOptions.merge(name, options, (a, b) -> a + "," + b);
+    } else if (!arg.startsWith("-")) {
+      protoArgs.add(arg);
+    }
+  }
+
+  private int generate(PrintStream err) throws IOException, InterruptedException {
+    // The name of each proto, relative to its include dir, and its content
+    Map<String, byte[]> protos = new LinkedHashMap<>();
+    for (String arg : protoArgs) {
+      File file = new File(arg);
+      if (file.isFile()) {
+        protos.put(nameOf(file), Files.readAllBytes(file.toPath()));
+      } else if (descriptorSetIn != null) {
+        protos.put(arg, arg.getBytes(StandardCharsets.UTF_8));
+      } else {
+        err.println(arg + ": No such file or directory");
+        return 1;
+      }
+    }
+    FakeSettings settings = FakeSettings.load();
+    settings.simulate(protos.size());
+    for (String name : protos.keySet()) {
+      if (settings.failsOn(name)) {
+        err.println(name + ":1:1: Simulated failure.");
+        return 1;
+      }
+    }
+    for (Map.Entry<String, String[]> output : outputs.entrySet()) {
+      String name = output.getKey();
+      String options = output.getValue()[0];
+      if (extraOptions.containsKey(name)) {
+        options = options.isEmpty() ? extraOptions.get(name) : options + "," + extraOptions.get(name);
+      }
+      Map<String, byte[]> files = new TreeMap<>();
+      if (BUILTINS.contains(name) && !pluginPaths.containsKey(name)) {
+        for (Map.Entry<String, byte[]> proto : protos.entrySet()) {
+          files.put(builtinOutputName(name, proto.getKey()), builtinOutput(name, options, proto));
+        }
+      } else if (!runPlugin(name, options, protos.keySet(), files, err)) {
+        return 1;
+      }
+      write(new File(output.getValue()[1]), files);
+    }
+    if (descriptorSetOut != null) {
+      Wire set = new Wire();
+      for (String name : protos.keySet()) {
+        set.bytes(1, new Wire().string(1, name).toByteArray());
+      }
+      Files.write(new File(descriptorSetOut).toPath(), set.toByteArray());
+    }
+    return 0;
+  }
+
+  private String nameOf(File file) {
+    String path = file.getAbsolutePath();
+    for (String dir : includeDirs) {
+      String prefix = new File(dir).getAbsolutePath() + File.separator;
+      if (path.startsWith(prefix)) {
+        return path.substring(prefix.length()).replace(File.separatorChar, '/');
+      }
+    }
+    return file.getPath().replace(File.separatorChar, '/');
+  }
+
+  private boolean runPlugin(String name, String options, Set<String> protos, Map<String, byte[]> files,
+      PrintStream err) throws IOException, InterruptedException {
+    String path = pluginPaths.containsKey(name) ? pluginPaths.get(name) : findOnPath("protoc-gen-" + name);
+    if (path == null || !new File(path).canExecute()) {
+      err.println("protoc-gen-" + name + ": program not found or is not executable");
+      err.println("--" + name + "_out: protoc-gen-" + name + ": Plugin failed.");
+      return false;
+    }
+    Wire request = new Wire();
+    for (String proto : protos) {
+      request.string(1, proto);
+    }
+    if (!options.isEmpty()) {
+      request.string(2, options);
+    }
+    Process process = new ProcessBuilder(path).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    try (OutputStream in = process.getOutputStream()) {
+      in.write(request.toByteArray());
+    }
+    byte[] response;
+    try (InputStream out = process.getInputStream()) {
+      response = readAll(out);
+    }
+    int status = process.waitFor();
+    if (status != 0) {
+      err.println("--" + name + "_out: protoc-gen-" + name + ": Plugin failed with status code " + status + ".");
+      return false;
+    }
+    for (Wire.Field field : Wire.parse(response)) {
+      if (field.number == 1) {
+        err.println("--" + name + "_out: " + field.string());
+        return false;
+      }
+      if (field.number == 15) {
+        String fileName = null;
+        byte[] content = new byte[0];
+        for (Wire.Field fileField : Wire.parse(field.value)) {
+          if (fileField.number == 1) {
+            fileName = fileField.string();
+          } else if (fileField.number == 15) {
+            content = fileField.value;
+          }
+        }
+        if (fileName != null) {
+          files.put(fileName, content);
+        }
+      }
+    }
+    return true;
+  }
+
+  private static String builtinOutputName(String builtin, String proto) {
+    String base = proto.endsWith(".proto") ? proto.substring(0, proto.length() - ".proto".length()) : proto;
+    switch (builtin) {
+      case "java":
+        return base + ".java";
+      case "kotlin":
+        return base + ".kt";
+      case "python":
+        return base + "_pb2.py";
+      default:
+        return base + "." + builtin;
+    }
+  }
+
+  private static byte[] builtinOutput(String builtin, String options, Map.Entry<String, byte[]> proto) {
+    String comment = builtin.equals("python") || builtin.equals("pyi") || builtin.equals("ruby") ? "#" : "//";
+    return (comment + " Generated by fake protoc --" + builtin + "_out"
+        + (options.isEmpty() ? "" : " with " + options)
+        + " from " + proto.getKey() + " (sha256 " + sha256(proto.getValue()) + ")\n")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void write(File target, Map<String, byte[]> files) throws IOException {
+    if (target.getName().endsWith(".jar") || target.getName().endsWith(".zip")) {
+      target.getAbsoluteFile().getParentFile().mkdirs();
+      try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(target))) {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+          ZipEntry entry = new ZipEntry(file.getKey());
+          // Keeps archives with the same files identical
+          entry.setTime(0);
+          zip.putNextEntry(entry);
+          zip.write(file.getValue());
+          zip.closeEntry();
+        }
+      }
+      return;
+    }
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      File output = new File(target, file.getKey());
+      output.getParentFile().mkdirs();
+      Files.write(output.toPath(), file.getValue());
+    }
+  }
+
+  private static String findOnPath(String executable) {
+    String path = System.getenv("PATH");
+    if (path == null) {
+      return null;
+    }
+    for (String dir : path.split(File.pathSeparator)) {
+      File candidate = new File(dir, executable);
+      if (candidate.canExecute()) {
+        return candidate.getPath();
+      }
+    }
+    return null;
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+      bytes.write(buffer, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+  static String sha256(byte[] content) {
+    try {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
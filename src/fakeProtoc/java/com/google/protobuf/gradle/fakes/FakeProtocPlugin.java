@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle.fakes;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in for a protoc plugin. It reads the files to generate and the parameter of the
+ * CodeGeneratorRequest on its standard input, skipping the other fields, so that it works
+ * with both protoc and {@link FakeProtoc}. For each file it returns a comment-only
+ * {@code <name>_fake.java} file that only depends on the file name and the parameter,
+ * and on its process if the {@code reportJvm} setting is set.
+ *
+ * <p>The settings of {@link FakeSettings} can be passed as options of its {@code --*_out}
+ * flag, e.g., {@code --fake_out=failOn=broken:dir}. A simulated failure is reported in the
+ * error of the CodeGeneratorResponse, like plugins do.
+ */
+public final class FakeProtocPlugin {
+  private FakeProtocPlugin() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    byte[] response = respond(FakeProtoc.readAll(System.in));
+    PrintStream out = System.out;
+    out.write(response);
+    out.flush();
+  }
+
+  /**
+   * Returns the CodeGeneratorResponse to the given CodeGeneratorRequest.
+   */
+  static byte[] respond(byte[] request) throws IOException, InterruptedException {
+    List<String> files = new ArrayList<>();
+    String parameter = "";
+    for (Wire.Field field : Wire.parse(request)) {
+      if (field.number == 1) {
+        files.add(field.string());
+      } else if (field.number == 2) {
+        parameter = field.string();
+      }
+    }
+    StringBuilder rest = new StringBuilder();
+    FakeSettings settings = FakeSettings.load().withOptions(parameter, rest);
+    settings.simulate(files.size());
+    Wire response = new Wire();
+    for (String file : files) {
+      if (settings.failsOn(file)) {
+        return new Wire().string(1, file + ": Simulated failure.").toByteArray();
+      }
+      String base = file.endsWith(".proto") ? file.substring(0, file.length() - ".proto".length()) : file;
+      String content = "// Generated by fake plugin" + (rest.length() == 0 ? "" : " with " + rest)
+          + " from " + file + (settings.reportsJvm() ? " in JVM " + ProcessHandle.current().pid() : "") + "\n";
+      response.bytes(15, new Wire().string(1, base + "_fake.java")
+          .bytes(15, content.getBytes(StandardCharsets.UTF_8)).toByteArray());
+    }
+    return response.toByteArray();
+  }
+}
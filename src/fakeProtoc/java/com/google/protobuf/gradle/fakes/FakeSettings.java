@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle.fakes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * How a fake behaves: the time it takes, the memory it uses and whether it fails. The
+ * settings are read, each overriding the previous, from:
+ * <ul>
+ *   <li>a {@code fake-protoc.properties} file next to the jar of the fakes</li>
+ *   <li>{@code FAKE_PROTOC_*} environment variables, e.g., {@code FAKE_PROTOC_LATENCY_MS}</li>
+ *   <li>for the plugin, the options of its {@code --*_out} flag, e.g.,
+ *   {@code --fake_out=latencyMs=100:dir}</li>
+ * </ul>
+ *
+ * <p>The settings are:
+ * <ul>
+ *   <li>{@code latencyMs}: time taken by each invocation</li>
+ *   <li>{@code latencyPerFileMs}: time taken for each proto file</li>
+ *   <li>{@code memoryMb}: memory allocated and touched by each invocation</li>
+ *   <li>{@code failOn}: fails the invocations with a proto file whose path contains it</li>
+ *   <li>{@code reportJvm}: if true, the plugin writes the id of its process into the
+ *   generated files</li>
+ * </ul>
+ */
+final class FakeSettings {
+  static final String PROPERTIES_FILE = "fake-protoc.properties";
+  private static final String ENV_PREFIX = "FAKE_PROTOC_";
+  private static final String[] KEYS = {"latencyMs", "latencyPerFileMs", "memoryMb", "failOn", "reportJvm"};
+
+  private final Map<String, String> values;
+  // Kept until the process exits, so that the memory stays in use
+  private byte[][] retained;
+
+  private FakeSettings(Map<String, String> values) {
+    this.values = values;
+  }
+
+  /**
+   * Returns the settings of the properties file and the environment.
+   */
+  static FakeSettings load() throws IOException {
+    Map<String, String> values = new HashMap<>();
+    File properties = propertiesFile();
+    if (properties != null && properties.isFile()) {
+      Properties fromFile = new Properties();
+      try (InputStream in = new FileInputStream(properties)) {
+        fromFile.load(in);
+      }
+      for (String key : fromFile.stringPropertyNames()) {
+        values.put(key, fromFile.getProperty(key));
+      }
+    }
+    for (String key : KEYS) {
+      String value = System.getenv(ENV_PREFIX + envName(key));
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return new FakeSettings(values);
+  }
+
+  /**
+   * Returns these settings, overridden by the {@code key=value} options among the given
+   * comma-separated ones. Returns the other options in {@code rest}.
+   */
+  FakeSettings withOptions(String options, StringBuilder rest) {
+    Map<String, String> merged = new HashMap<>(values);
+    if (!options.isEmpty()) {
+      for (String option : options.split(",")) {
+        int equals = option.indexOf('=');
+        String key = equals < 0 ? option : option.substring(0, equals);
+        if (equals > 0 && Arrays.asList(KEYS).contains(key)) {
+          merged.put(key, option.substring(equals + 1));
+        } else {
+          rest.append(rest.length() > 0 ? "," : "").append(option);
+        }
+      }
+    }
+    return new FakeSettings(merged);
+  }
+
+  /**
+   * Uses the memory and takes the time of an invocation for the given number of files.
+   */
+  void simulate(int fileCount) throws InterruptedException {
+    int memoryMb = intValue("memoryMb");
+    if (memoryMb > 0) {
+      retained = new byte[memoryMb][];
+      for (int i = 0; i < memoryMb; i++) {
+        retained[i] = new byte[1024 * 1024];
+        for (int page = 0; page < retained[i].length; page += 4096) {
+          retained[i][page] = 1;
+        }
+      }
+    }
+    long millis = intValue("latencyMs") + (long) intValue("latencyPerFileMs") * fileCount;
+    if (millis > 0) {
+      Thread.sleep(millis);
+    }
+  }
+
+  /**
+   * Returns true if the invocation of the given proto file must fail.
+   */
+  boolean failsOn(String proto) {
+    String failOn = values.get("failOn");
+    return failOn != null && !failOn.isEmpty() && proto.contains(failOn);
+  }
+
+  /**
+   * Returns true if the generated files must tell which process generated them.
+   */
+  boolean reportsJvm() {
+    return Boolean.parseBoolean(values.get("reportJvm"));
+  }
+
+  private int intValue(String key) {
+    String value = values.get(key);
+    return value == null || value.trim().isEmpty() ? 0 : Integer.parseInt(value.trim());
+  }
+
+  private static String envName(String key) {
+    return key.replaceAll("([A-Z])", "_$1").toUpperCase(Locale.ROOT);
+  }
+
+  private static File propertiesFile() {
+    CodeSource source = FakeSettings.class.getProtectionDomain().getCodeSource();
+    if (source == null) {
+      return null;
+    }
+    try {
+      return new File(new File(source.getLocation().toURI()).getParentFile(), PROPERTIES_FILE);
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle.fakes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the few length-delimited fields of the protobuf wire format that the
+ * fakes exchange: the files to generate and the parameter of a CodeGeneratorRequest, the
+ * error and files of a CodeGeneratorResponse, and the file names of a FileDescriptorSet.
+ * Other fields are skipped, so that the fake plugin also reads the requests of protoc.
+ */
+final class Wire {
+  private static final int VARINT = 0;
+  private static final int FIXED64 = 1;
+  private static final int LENGTH_DELIMITED = 2;
+  private static final int FIXED32 = 5;
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+  /** A length-delimited field read from a message. */
+  static final class Field {
+    final int number;
+    final byte[] value;
+
+    Field(int number, byte[] value) {
+      this.number = number;
+      this.value = value;
+    }
+
+    String string() {
+      return new String(value, StandardCharsets.UTF_8);
+    }
+  }
+
+  Wire string(int number, String value) {
+    return bytes(number, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  Wire bytes(int number, byte[] value) {
+    varint(((long) number << 3) | LENGTH_DELIMITED);
+    varint(value.length);
+    out.write(value, 0, value.length);
+    return this;
+  }
+
+  byte[] toByteArray() {
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the length-delimited fields of the given message, in order.
+   */
+  static List<Field> parse(byte[] message) throws IOException {
+    List<Field> fields = new ArrayList<>();
+    int[] position = {0};
+    while (position[0] < message.length) {
+      long tag = readVarint(message, position);
+      int number = (int) (tag >>> 3);
+      switch ((int) (tag & 7)) {
+        case VARINT:
+          readVarint(message, position);
+          break;
+        case FIXED64:
+          position[0] += 8;
+          break;
+        case LENGTH_DELIMITED:
+          int length = (int) readVarint(message, position);
+          if (length < 0 || position[0] + length > message.length) {
+            throw new IOException("Truncated message");
+          }
+          byte[] value = new byte[length];
+          System.arraycopy(message, position[0], value, 0, length);
+          position[0] += length;
+          fields.add(new Field(number, value));
+          break;
+        case FIXED32:
+          position[0] += 4;
+          break;
+        default:
+          throw new IOException("Unsupported wire type in tag " + tag);
+      }
+    }
+    return fields;
+  }
+
+  private void varint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarint(byte[] message, int[] position) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position[0] >= message.length) {
+        throw new IOException("Truncated varint");
+      }
+      byte b = message[position[0]++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+}
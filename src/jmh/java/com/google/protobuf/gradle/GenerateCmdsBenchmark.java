@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how {@link GenerateProtoTask#generateCmds} splits the proto files of a task
+ * into protoc command lines, for many files with long paths, under the command length
+ * limits of Linux and Windows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerateCmdsBenchmark {
+  @Param({"1000", "100000"})
+  public int protoCount;
+
+  @Param({"40", "200"})
+  public int pathLength;
+
+  @Param({"Linux", "Windows 10"})
+  public String os;
+
+  private List<String> baseCmd;
+  private List<File> protoFiles;
+  private int cmdLengthLimit;
+
+  @Setup
+  public void setUp() {
+    baseCmd = new ArrayList<>();
+    baseCmd.add("/home/user/.gradle/caches/protoc-3.25.1-linux-x86_64.exe");
+    for (int i = 0; i < 8; i++) {
+      baseCmd.add("-I/home/user/project/build/extracted-include-protos/main/dependency" + i);
+    }
+    baseCmd.add("--java_out=/home/user/project/build/generated/source/proto/main/java");
+    baseCmd.add("--grpc_out=lite:/home/user/project/build/generated/source/proto/main/grpc");
+    protoFiles = new ArrayList<>(protoCount);
+    for (int i = 0; i < protoCount; i++) {
+      protoFiles.add(new File(BenchmarkPaths.protoPath(i, pathLength)));
+    }
+    cmdLengthLimit = GenerateProtoTask.getCmdLengthLimit(os);
+  }
+
+  @Benchmark
+  public List<List<String>> generateCmds() {
+    return GenerateProtoTask.generateCmds(baseCmd, protoFiles, cmdLengthLimit);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * A build service that creates the trampolines that run .jar plugins with an application class data sharing
+ * (AppCDS) archive, to cut the startup time of their JVM. The first run of a plugin jar
+ * on a java executable records the classes it loads into an archive, with
+ * {@code -XX:ArchiveClassesAtExit}, and later runs map that archive with
+ * {@code -XX:SharedArchiveFile}. Archives are keyed by the content of the jar and the
+ * identity of the java executable, so that changing either uses a new archive.
+ *
+ * <p>Dynamic archives need Java 13+. Plugins run on older JVMs, or on JVMs whose version
+ * is unknown, use the plain trampoline, since Java 8 does not accept the -Xlog options.
+ *
+ * <p>Each plugin jar is hashed once per build, and the archives that were not used for a
+ * while are deleted when a build that used archives finishes.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ClassDataSharing implements BuildService<Parameters>, AutoCloseable {
+  static final String NAME = "protobufClassDataSharing"
+  static final String CACHE_NAME = "cds"
+
+  // Archives that no trampoline was created for in that long are deleted
+  private static final long MAX_UNUSED_MILLIS = TimeUnit.DAYS.toMillis(30)
+  private static final int KEY_LENGTH = 16
+  // The first version with -XX:ArchiveClassesAtExit
+  private static final int MIN_JAVA_VERSION = 13
+  // JVM logging goes to stdout by default, where it would corrupt the plugin response
+  private static final String JVM_OPTIONS =
+      "-XX:+IgnoreUnrecognizedVMOptions -Xlog:disable -Xlog:all=warning:stderr"
+
+  // The SHA-256 of each plugin jar, by path, size and modification time
+  private final Map<String, String> jarDigests = new ConcurrentHashMap<>()
+  // The archives the build created trampolines for
+  private final Set<File> usedArchives = ConcurrentHashMap.newKeySet()
+
+  /**
+   * The settings of the service.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the archives are. */
+    DirectoryProperty getCacheDir()
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ClassDataSharing> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ClassDataSharing) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.cacheDir.set(Utils.getSharedCacheDir(project.gradle.gradleUserHomeDir, CACHE_NAME))
+    }
+  }
+
+  /**
+   * Returns true if plugins run on {@code javaExe} can use an archive.
+   */
+  static boolean isSupported(String javaExe) {
+    return Utils.javaFeatureVersion(javaExe) >= MIN_JAVA_VERSION
+  }
+
+  /**
+   * Returns the archive for running {@code jar} on {@code javaExe}, which may not exist
+   * yet, and marks it as used, once per build.
+   */
+  File archiveFor(File jar, String javaExe) {
+    String jarKey = "${jar.absolutePath}:${jar.length()}:${jar.lastModified()}"
+    String jarDigest = jarDigests.computeIfAbsent(jarKey) { String ignored -> Utils.sha256(jar) }
+    File cacheDir = parameters.cacheDir.get().asFile
+    File archive = archiveFor(cacheDir, jar.name, jarDigest, javaExe)
+    if (usedArchives.add(archive)) {
+      cacheDir.mkdirs()
+      if (archive.isFile()) {
+        archive.setLastModified(System.currentTimeMillis())
+      }
+    }
+    return archive
+  }
+
+  /**
+   * Returns the archive in {@code cacheDir} for running the jar named {@code jarName},
+   * whose SHA-256 is {@code jarDigest}, on {@code javaExe}.
+   */
+  static File archiveFor(File cacheDir, String jarName, String jarDigest, String javaExe) {
+    String key = "${jarDigest}\n${javaIdentity(javaExe)}"
+    String digest = key.digest("SHA-256").substring(0, KEY_LENGTH)
+    String name = jarName.substring(0, jarName.length() - ".jar".length())
+    return new File(cacheDir, "${name}-${digest}.jsa")
+  }
+
+  /**
+   * Returns what identifies the JVM of a java executable: its path, and the version
+   * information of its Java home, or its modification time if it has none.
+   */
+  static String javaIdentity(String javaExe) {
+    File exe = new File(javaExe).canonicalFile
+    File release = new File(exe.parentFile.parentFile, "release")
+    return "${exe.path}\n${release.isFile() ? release.getText('UTF-8') : exe.lastModified()}"
+  }
+
+  /**
+   * Returns a trampoline that runs {@code jar} with {@code archive}, or creates it if it
+   * does not exist. Concurrent runs create their own archive and the last one wins.
+   */
+  static String trampoline(String javaExe, String jar, File archive) {
+    String java = GenerateProtoTask.escapePathUnix(javaExe)
+    String escapedJar = GenerateProtoTask.escapePathUnix(jar)
+    return """#!/bin/sh
+archive='${GenerateProtoTask.escapePathUnix(archive.path)}'
+if [ -f "\$archive" ]; then
+  exec '${java}' ${JVM_OPTIONS} -XX:SharedArchiveFile="\$archive" -jar '${escapedJar}' "\$@"
+fi
+'${java}' ${JVM_OPTIONS} -XX:ArchiveClassesAtExit="\$archive.\$\$.tmp" -jar '${escapedJar}' "\$@"
+status=\$?
+if [ -f "\$archive.\$\$.tmp" ]; then
+  mv -f "\$archive.\$\$.tmp" "\$archive" 2>/dev/null || rm -f "\$archive.\$\$.tmp"
+fi
+exit \$status
+""".toString()
+  }
+
+  /**
+   * Deletes the archives that have not been used for a while, once per build.
+   */
+  @Override
+  void close() {
+    if (!usedArchives.isEmpty()) {
+      Utils.deleteUnused(parameters.cacheDir.get().asFile, MAX_UNUSED_MILLIS)
+    }
+  }
+}
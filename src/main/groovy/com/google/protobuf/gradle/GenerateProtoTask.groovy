@@ -31,6 +31,7 @@ package com.google.protobuf.gradle
 
 import static java.nio.charset.StandardCharsets.US_ASCII
 
+import org.gradle.api.file.Directory
 import org.gradle.api.file.DirectoryProperty
 
 import groovy.transform.CompileStatic
@@ -44,9 +45,10 @@ import org.gradle.api.Named
 import org.gradle.api.NamedDomainObjectContainer
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileType
+import org.gradle.api.file.FileVisitDetails
 import org.gradle.api.file.ProjectLayout
 import org.gradle.api.file.SourceDirectorySet
-import org.gradle.api.logging.LogLevel
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.provider.Property
 import org.gradle.api.provider.Provider
@@ -65,7 +67,15 @@ import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.SkipWhenEmpty
 import org.gradle.api.tasks.SourceSet
 import org.gradle.api.tasks.TaskAction
-
+import org.gradle.work.FileChange
+import org.gradle.work.Incremental
+import org.gradle.work.InputChanges
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.PosixFilePermissions
 import javax.annotation.Nullable
 import javax.inject.Inject
 
@@ -86,6 +96,9 @@ public abstract class GenerateProtoTask extends DefaultTask {
   // Two quotes and a space.
   static final int CMD_ARGUMENT_EXTRA_LENGTH = 3
   private static final String JAR_SUFFIX = ".jar"
+  // Beyond this many protos to regenerate, starting a protoc per proto costs more than
+  // regenerating the other protos of their batches later on
+  private static final int MAX_SEPARATELY_GENERATED_PROTOS = 16
 
   // protoc allows you to prefix comma-delimited options to the path in
   // the --*_out flags, e.g.,
@@ -107,13 +120,20 @@ public abstract class GenerateProtoTask extends DefaultTask {
   }
 
   static List<List<String>> generateCmds(List<String> baseCmd, List<File> protoFiles, int cmdLengthLimit) {
+    return generateCmdsForNames(baseCmd, protoFiles*.path, cmdLengthLimit)
+  }
+
+  /**
+   * Like {@link #generateCmds(List, List, int)}, for protos given by their path or,
+   * with --descriptor_set_in, by their name.
+   */
+  static List<List<String>> generateCmdsForNames(List<String> baseCmd, List<String> protos, int cmdLengthLimit) {
     List<List<String>> cmds = []
-    if (!protoFiles.isEmpty()) {
+    if (!protos.isEmpty()) {
       int baseCmdLength = baseCmd.sum { String arg -> arg.length() + CMD_ARGUMENT_EXTRA_LENGTH } as int
       List<String> currentArgs = []
       int currentArgsLength = 0
-      for (File proto: protoFiles) {
-        String protoFileName = proto
+      for (String protoFileName: protos) {
         int currentFileLength = protoFileName.length() + CMD_ARGUMENT_EXTRA_LENGTH
         // Check if appending the next proto string will overflow the cmd length limit
         if (baseCmdLength + currentArgsLength + currentFileLength > cmdLengthLimit) {
@@ -132,6 +152,18 @@ public abstract class GenerateProtoTask extends DefaultTask {
     return cmds
   }
 
+  /**
+   * Returns the content of a protoc response file, i.e., "@file" argument, that holds the
+   * given arguments, one per line. Returns null if an argument cannot be written that way
+   * because it contains a line break.
+   */
+  static String argumentFileContent(List<String> args) {
+    if (args.any { String arg -> arg.contains('\n') || arg.contains('\r') }) {
+      return null
+    }
+    return args.collect { String arg -> arg + '\n' }.join('')
+  }
+
   static int getCmdLengthLimit() {
     return getCmdLengthLimit(System.getProperty("os.name"))
   }
@@ -140,6 +172,31 @@ public abstract class GenerateProtoTask extends DefaultTask {
     return Utils.isWindows(os) ? WINDOWS_CMD_LENGTH_LIMIT : DEFAULT_CMD_LENGTH_LIMIT
   }
 
+  /**
+   * Returns a bash trampoline that forwards the CodeGeneratorRequest of protoc to the plugin
+   * host through files, and runs the plugin in a new JVM if the host can't be reached or
+   * refuses the jar. It holds the token of the host, see {@link #writeOwnerOnlyExecutable}.
+   */
+  static String pluginHostTrampoline(PluginHostService.Endpoint host, String javaExe, String jarAbsolutePath) {
+    String java = escapePathUnix(javaExe)
+    String jar = escapePathUnix(jarAbsolutePath)
+    return """#!/usr/bin/env bash
+request=\$(mktemp) || exit 1
+trap 'rm -f "\$request" "\$request.out" "\$request.err"' EXIT
+cat > "\$request"
+if { exec 3<>/dev/tcp/127.0.0.1/${host.port}; } 2>/dev/null; then
+  printf '%s\\n' '${host.token}' '${jar}' "\$request" "\$request.out" "\$request.err" >&3
+  IFS= read -r status <&3
+  exec 3<&-
+  case "\$status" in
+    OK) cat "\$request.out"; cat "\$request.err" >&2; exit 0 ;;
+    FAIL*) cat "\$request.err" >&2; exit "\${status#FAIL }" ;;
+  esac
+fi
+'${java}' -jar '${jar}' "\$@" < "\$request"
+""".toString()
+  }
+
   static String escapePathUnix(String path) {
     return path.replace("'", "'\\''")
   }
@@ -155,6 +212,17 @@ public abstract class GenerateProtoTask extends DefaultTask {
     }
   }
 
+  /**
+   * Writes an executable script that only the build user can read, e.g., because it holds
+   * a secret. The permissions are set when the file is created, before anything is written.
+   */
+  static void writeOwnerOnlyExecutable(File outputFile, String content) throws IOException {
+    Path path = outputFile.toPath()
+    Files.deleteIfExists(path)
+    Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")))
+    outputFile.write(content, US_ASCII.name())
+  }
+
   static void setExecutableOrFail(File outputFile) throws IOException {
     if (!outputFile.setExecutable(true)) {
       outputFile.delete()
@@ -162,6 +230,35 @@ public abstract class GenerateProtoTask extends DefaultTask {
     }
   }
 
+  private static String outputDirUnder(File outputBase, PluginOptions plugin) {
+    return "${outputBase.path}/${plugin.outputSubDir}"
+  }
+
+  private static Set<String> changedPaths(InputChanges inputChanges, FileCollection files) {
+    Set<String> changed = [] as Set
+    inputChanges.getFileChanges(files).each { FileChange change ->
+      if (change.fileType == FileType.FILE) {
+        changed.add(change.normalizedPath)
+      }
+    }
+    return changed
+  }
+
+  private static String descriptorSetName(int batchIndex) {
+    return String.format("set-%05d.pb", batchIndex)
+  }
+
+  /**
+   * Returns where protoc should write {@code path} when generating into
+   * {@code stagingDir} instead of {@code outputBaseDir}. Paths outside of
+   * {@code outputBaseDir} are written directly.
+   */
+  private static String stagedPath(String path, File outputBaseDir, File stagingDir) {
+    Path base = outputBaseDir.toPath().toAbsolutePath().normalize()
+    Path file = new File(path).toPath().toAbsolutePath().normalize()
+    return file.startsWith(base) ? new File(stagingDir, base.relativize(file).toString()).path : path
+  }
+
   private final CopyActionFacade copyActionFacade = CopyActionFacade.Loader.create(project, objectFactory)
   // include dirs are passed to the '-I' option of protoc.  They contain protos
   // that may be "imported" from the source protos, but will not be compiled.
@@ -170,17 +267,133 @@ public abstract class GenerateProtoTask extends DefaultTask {
   private final ConfigurableFileCollection sourceDirs = objectFactory.fileCollection()
   private final NamedDomainObjectContainer<PluginOptions> builtins = objectFactory.domainObjectContainer(PluginOptions)
   private final NamedDomainObjectContainer<PluginOptions> plugins = objectFactory.domainObjectContainer(PluginOptions)
-  private final ProjectLayout projectLayout = project.layout
-  private final ToolsLocator toolsLocator = project.extensions.findByType(ProtobufExtension).tools
 
+  /**
+   * The locations of protoc and of the plugins. Set by the plugin from the protobuf block.
+   */
+  @Internal("Handled as inputs via getReleaseArtifacts() and getExecutables()")
+  abstract Property<ToolsLocator> getToolsLocator()
+
+  /**
+   * The java executable that runs .jar plugins. Set by the plugin to
+   * protobuf.javaExecutablePath.
+   */
   @Input
   final Property<String> javaExecutablePath = objectFactory.property(String)
-          .convention(project.extensions.findByType(ProtobufExtension).javaExecutablePath)
+
+  /**
+   * The maximum number of protoc invocations of this task that may run at the same
+   * time. When the proto files don't fit on a single command line, protoc is run
+   * once per batch of files. If this is greater than 1, the batches are submitted to
+   * the Gradle worker API instead of running one after another; the total number of
+   * workers is still bounded by {@code --max-workers}.
+   *
+   * Default: 1
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Integer> maxParallelInvocations = objectFactory.property(Integer).convention(1)
+
+  /**
+   * If true, .jar plugins are run by a plugin host JVM that stays up for the duration of
+   * the build, instead of starting a new JVM for every protoc invocation. The trampoline
+   * script of each plugin forwards the request of protoc to the host, and falls back to a
+   * new JVM if the host can't be reached. The host keeps the classes of each plugin jar
+   * loaded between invocations, in a class loader per concurrent invocation, and drops
+   * them after a minute without use. Requires bash and a JVM that can trap System.exit(),
+   * Java 11 to 23, and is ignored otherwise and on Windows.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> usePluginHost = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, the trampoline scripts that run .jar plugins use a class data sharing
+   * archive of the classes the plugin loads, to start the JVM faster. The archive is
+   * created by the first run of each plugin jar on each java executable, and cached
+   * under the Gradle user home. Needs Java 13+, and is ignored for older or unknown
+   * JVMs, on Windows and for the plugins run by the plugin host.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> useClassDataSharing = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, protoc is run once for all the proto files of this task, with its arguments
+   * passed in a response file under the task's temporary directory, instead of once per
+   * batch of files that fits on a command line. This saves parsing the shared imports and
+   * starting the plugins again for every batch. If protoc does not accept response files,
+   * the task falls back to running it once per batch.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> useArgumentFile = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, only the protos that changed since the last execution, and the protos
+   * that import them, are regenerated; the files generated for removed protos are
+   * deleted. To know which files belong to which proto, a few regenerated protos are
+   * each compiled by their own protoc invocation, and the protos of a larger or full
+   * regeneration are later regenerated together with the other protos of their batch.
+   * This suits builtins and plugins whose output for a proto depends only on that proto
+   * and its imports. It has no effect if a descriptor set or a .jar/.zip output is
+   * generated.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> incrementalGeneration = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, protoc first parses the protos and their imports once into descriptor
+   * sets, then each builtin and plugin, and the descriptor set if one is requested, is
+   * generated by its own protoc invocation that reads them with --descriptor_set_in.
+   * The generators can then run in parallel, see {@link #getMaxParallelInvocations()},
+   * and each one reports its own time and failure. Not for plugins that write to the
+   * insertion points of another generator, since those must run in the same
+   * invocation. {@link #getIncrementalGeneration()} takes precedence when it applies.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> generateFromDescriptorSet = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, the plugins defined in the protobuf.plugins block are run through a shim
+   * that caches their responses under the Gradle user home, by the hash of the request
+   * of protoc and of the plugin executable. A request seen before, e.g., on another
+   * branch, in another source set or after a clean, replays the stored response instead
+   * of running the plugin. Only for plugins whose output depends on nothing but their
+   * request. When the build finishes, the cache is kept under the
+   * {@code protobuf.pluginResponseCacheMaxSizeMb} Gradle property, 512 by default, by
+   * deleting the least recently used responses. Ignored on Windows.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> cachePluginResponses = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * If true, this task and the other tasks of the build with this option that would
+   * generate the same files, i.e., that use the same tools, generators and options on
+   * protos and includes of the same content, e.g., the debug and release variants of an
+   * Android app, generate them only once. The tasks that run after one of them generated
+   * the files copy them into their own output directory; tasks that run at the same time
+   * generate their own instead of waiting. Ignored if the descriptor set is written
+   * outside of the output directory.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the generated files")
+  final Property<Boolean> reuseIdenticalGeneration = objectFactory.property(Boolean).convention(false)
 
   // kept for compatibility reasons
   void setOutputBaseDir(Provider<String> outputBaseDir) {
+    Directory projectDir = projectLayout.projectDirectory
     outputBaseDirProperty.set(outputBaseDir.map {  path ->
-      project.layout.projectDirectory.dir(path)
+      projectDir.dir(path)
     })
   }
 
@@ -198,6 +411,7 @@ public abstract class GenerateProtoTask extends DefaultTask {
 
   @SuppressWarnings("UnnecessaryTransientModifier") // It is not necessary for task to implement Serializable
   transient private Object variant
+  private String sourceSetName
   private List<String> flavors
   private String buildType
   private boolean isTestVariant
@@ -206,7 +420,7 @@ public abstract class GenerateProtoTask extends DefaultTask {
     if (Utils.isAndroidProject(project)) {
       return isTestVariant
     }
-    return Utils.isTest(sourceSet.name)
+    return Utils.isTest(sourceSetName)
   }
 
   /**
@@ -258,6 +472,7 @@ public abstract class GenerateProtoTask extends DefaultTask {
     Preconditions.checkState(!isAndroidProject.get(),
         'sourceSet should not be set in an Android project')
     this.sourceSet = sourceSet
+    this.sourceSetName = sourceSet.name
   }
 
   void setVariant(Object variant, boolean isTestVariant) {
@@ -298,6 +513,7 @@ public abstract class GenerateProtoTask extends DefaultTask {
     return sourceDirs
   }
 
+  @Incremental
   @InputFiles
   @PathSensitive(PathSensitivity.RELATIVE)
   FileCollection getIncludeDirs() {
@@ -348,8 +564,8 @@ public abstract class GenerateProtoTask extends DefaultTask {
   }
 
   private List<ExecutableLocator> getAllExecutableLocators() {
-    return [toolsLocator.protoc] + plugins.findResults { PluginOptions plugin ->
-      toolsLocator.plugins.findByName(plugin.name)
+    return [toolsLocator.get().protoc] + plugins.findResults { PluginOptions plugin ->
+      toolsLocator.get().plugins.findByName(plugin.name)
     }
   }
 
@@ -411,6 +627,69 @@ public abstract class GenerateProtoTask extends DefaultTask {
   @Inject
   abstract ObjectFactory getObjectFactory()
 
+  @Inject
+  abstract WorkerExecutor getWorkerExecutor()
+
+  @Inject
+  abstract ProjectLayout getProjectLayout()
+
+  /**
+   * The build service that bounds the number and estimated memory of the protoc
+   * processes running in the build. Set by the plugin; unbounded if not set.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<ProtocProcessLimiter> getProcessLimiter()
+
+  /**
+   * The build service staging the executables of the build. Set by the plugin; if not
+   * set, artifacts are run from where they were resolved and trampolines are written
+   * to the build directory.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<ToolRegistry> getToolRegistry()
+
+  /**
+   * The build service through which tasks with identical inputs generate their files
+   * once. Set by the plugin; if not set, {@link #getReuseIdenticalGeneration()} has no
+   * effect.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<OutputReuseRegistry> getOutputReuse()
+
+  /**
+   * The build service of the plugin response cache. Set by the plugin; if not set,
+   * {@link #getCachePluginResponses()} has no effect.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<PluginResponseCache> getPluginResponseCache()
+
+  /**
+   * The build service of the class data sharing archives. Set by the plugin; if not set,
+   * {@link #getUseClassDataSharing()} has no effect.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<ClassDataSharing> getClassDataSharing()
+
+  /**
+   * The build service adding up the time of the plugin's phases. Set by the plugin when
+   * the {@code protobuf.metrics} Gradle property is true.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<ProtobufMetrics> getMetrics()
+
+  /**
+   * The build service writing the trace of the plugin's phases. Set by the plugin when
+   * the {@code protobuf.trace} Gradle property is true.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<ProtobufTrace> getTrace()
+
+  /**
+   * The build service running the plugin host JVMs. Set by the plugin.
+   */
+  @Internal("Does not affect the generated files")
+  abstract Property<PluginHostService> getPluginHost()
+
   //===========================================================================
   //        Configuration methods
   //===========================================================================
@@ -545,7 +824,7 @@ public abstract class GenerateProtoTask extends DefaultTask {
   //===========================================================================
 
   String getOutputDir(PluginOptions plugin) {
-    return "${outputBaseDirProperty.get().asFile.path}/${plugin.outputSubDir}"
+    return outputDirUnder(outputBaseDirProperty.get().asFile, plugin)
   }
 
   /**
@@ -585,79 +864,528 @@ public abstract class GenerateProtoTask extends DefaultTask {
   }
 
   @TaskAction
-  void compile() {
+  void compile(InputChanges inputChanges) {
     Preconditions.checkState(state == State.FINALIZED, 'doneConfig() has not been called')
+    PluginEvents.Span span = PluginEvents.startTask(path, PluginEvents.listeners(metrics, trace))
+    try {
+      generateOrReuse(inputChanges)
+    } finally {
+      span.end()
+    }
+  }
+
+  private void generateOrReuse(InputChanges inputChanges) {
+    OutputReuseRegistry.Claim claim = reuseIdenticalGeneration.get() && outputReuse.present ? claimOutputs() : null
+    if (claim == null) {
+      generate(inputChanges)
+      return
+    }
+    if (claim.producedDir != null) {
+      copyGeneratedFiles(claim.producedDir)
+      return
+    }
+    boolean generated = false
+    try {
+      generate(inputChanges)
+      generated = true
+    } finally {
+      if (generated) {
+        outputReuse.get().produced(claim, outputBaseDirProperty.get().asFile)
+      } else {
+        outputReuse.get().failed(claim)
+      }
+    }
+  }
 
+  private void generate(InputChanges inputChanges) {
+    if (incrementalGeneration.get()) {
+      if (supportsIncrementalGeneration()) {
+        compileIncrementally(inputChanges)
+        return
+      }
+      logger.info("${path}: regenerating all files, incremental generation does not support " +
+          "descriptor sets and .jar/.zip outputs")
+    }
+
+    File outputBaseDir = outputBaseDirProperty.get().asFile
+    File stagingDir = new File(temporaryDir, "staging")
     copyActionFacade.delete { spec ->
-      spec.delete(outputBaseDirProperty)
+      spec.delete(stagingDir)
     }
     // Sort to ensure generated descriptors have a canonical representation
     // to avoid triggering unnecessary rebuilds downstream
     List<File> protoFiles = sourceDirs.asFileTree.files.sort()
+    logger.debug "ProtobufCompile using files ${protoFiles}"
 
-    [builtins, plugins]*.forEach { PluginOptions plugin ->
-      String outputPath = getOutputDir(plugin)
-      File outputDir = new File(outputPath)
-      // protoc is capable of output generated files directly to a JAR file
-      // or ZIP archive if the output location ends with .jar/.zip
-      if (outputPath.endsWith(".jar") || outputPath.endsWith(".zip")) {
-        outputDir = outputDir.getParentFile()
+    if (generateFromDescriptorSet.get()) {
+      compileFromDescriptorSet(stagingDir, outputBaseDir, protoFiles)
+      StagedOutputs.Result result = StagedOutputs.publishAll(stagingDir, outputBaseDir)
+      finishPublishing(outputBaseDir, result.files, result.written, stagingDir)
+      return
+    }
+
+    String protocPath = computeExecutablePath(toolsLocator.get().protoc)
+    List<String> baseCmd = buildBaseCmd(stagingDir, protocPath, computePluginPaths())
+
+    if (generateDescriptorSet) {
+      String path = stagedPath(getDescriptorPath(), outputBaseDir, stagingDir)
+      // Ensure that the folder for the descriptor exists;
+      // the user may have set it to point outside an existing tree
+      File folder = new File(path).parentFile
+      if (!folder.exists()) {
+        folder.mkdirs()
+      }
+      baseCmd += "--descriptor_set_out=${path}".toString()
+      if (descriptorSetOptions.includeImports) {
+        baseCmd += "--include_imports"
+      }
+      if (descriptorSetOptions.includeSourceInfo) {
+        baseCmd += "--include_source_info"
       }
-      outputDir.mkdirs()
     }
 
-    // The source directory designated from sourceSet may not actually exist on disk.
-    // "include" it only when it exists, so that Gradle and protoc won't complain.
-    List<String> dirs = includeDirs.filter { File file -> file.exists() }*.path
-        .collect { String dir -> "-I${dir}".toString() }
-    logger.debug "ProtobufCompile using directories ${dirs}"
-    logger.debug "ProtobufCompile using files ${protoFiles}"
+    if (!useArgumentFile.get() || protoFiles.isEmpty() || !runWithArgumentFile(baseCmd, protoFiles)) {
+      List<List<String>> cmds = generateCmds(baseCmd, protoFiles, getCmdLengthLimit())
+      runCmds(cmds, (0..<cmds.size()).collect { int i -> ProtocRunner.batchLabel(i, cmds.size()) })
+    }
+
+    StagedOutputs.Result result = StagedOutputs.publishAll(stagingDir, outputBaseDir)
+    finishPublishing(outputBaseDir, result.files, result.written, stagingDir)
+  }
+
+  /**
+   * Claims the outputs of this task from the tasks that generate the same files: those
+   * with the same tools, generators and options, and source and include protos of the
+   * same paths and content. Only the sizes of the protos are read here, their content is
+   * hashed if a task with the same paths and sizes has generated its files. Returns null
+   * if the outputs can't be copied to another task, i.e., if a descriptor set is written
+   * outside of the output directory.
+   */
+  private OutputReuseRegistry.Claim claimOutputs() {
+    Path outputBase = outputBaseDirProperty.get().asFile.toPath().toAbsolutePath().normalize()
+    Path descriptorSet = generateDescriptorSet ?
+        new File(getDescriptorPath()).toPath().toAbsolutePath().normalize() : null
+    if (descriptorSet != null && !descriptorSet.startsWith(outputBase)) {
+      return null
+    }
+    List<String> lines = ["protoc ${executableIdentity(toolsLocator.get().protoc)}".toString()]
+    lines.add("java ${javaExecutablePath.get()}".toString())
+    builtins.each { builtin ->
+      lines.add("builtin ${builtin.name} ${builtin.options} ${builtin.outputSubDir}".toString())
+    }
+    Map<String, ExecutableLocator> executableLocations = toolsLocator.get().plugins.asMap
+    plugins.each { plugin ->
+      ExecutableLocator locator = executableLocations.get(plugin.name)
+      String executable = locator != null ? executableIdentity(locator) : "protoc-gen-${plugin.name}"
+      lines.add("plugin ${plugin.name} ${executable} ${plugin.options} ${plugin.outputSubDir}".toString())
+    }
+    if (generateDescriptorSet) {
+      lines.add(("descriptor set ${outputBase.relativize(descriptorSet)} ${descriptorSetOptions.includeImports} " +
+          "${descriptorSetOptions.includeSourceInfo}").toString())
+    }
+    List<File> contents = []
+    sourceProtosByPath().sort().each { String proto, File file ->
+      lines.add("source ${proto} ${file.length()}".toString())
+      contents.add(file)
+    }
+    // Only include dirs with protos are numbered, and in path order: tasks whose include
+    // dirs only differ by empty dirs, or by the order files are listed in, match
+    int index = 0
+    includeDirs.filter { File file -> file.exists() }.files.each { File dir ->
+      Map<String, File> protos = new TreeMap<String, File>()
+      objectFactory.fileTree().from(dir).visit { FileVisitDetails details ->
+        if (!details.directory && details.name.endsWith(".proto")) {
+          protos.put(details.relativePath.pathString, details.file)
+        }
+      }
+      if (!protos.isEmpty()) {
+        protos.each { String proto, File file ->
+          lines.add("include ${index} ${proto} ${file.length()}".toString())
+          contents.add(file)
+        }
+        index++
+      }
+    }
+    return outputReuse.get().claim(lines.join("\n").digest("SHA-256"), contents)
+  }
+
+  private static String executableIdentity(ExecutableLocator locator) {
+    return locator.path != null ? locator.path : locator.artifactFiles.singleFile.absolutePath
+  }
+
+  /**
+   * Makes the output directory of this task a copy of {@code producedDir}, where another
+   * task generated the same files.
+   */
+  private void copyGeneratedFiles(File producedDir) {
+    File outputBaseDir = outputBaseDirProperty.get().asFile
+    List<String> files = StagedOutputs.listFiles(producedDir)
+    int written = 0
+    files.each { String file ->
+      written += StagedOutputs.copy(new File(producedDir, file), new File(outputBaseDir, file)) ? 1 : 0
+    }
+    int deleted = StagedOutputs.deleteStale(outputBaseDir, files)
+    createOutputDirs(outputBaseDir)
+    logger.info("${path}: reused the files generated from identical inputs in ${producedDir}, " +
+        "${written} of ${files.size()} changed, ${deleted} deleted")
+  }
+
+  /**
+   * Parses the protos once into descriptor sets under the task's temporary directory, one
+   * per batch, then generates the outputs of each builtin and plugin, and the descriptor
+   * set if requested, under {@code stagingDir} from them, each with its own invocations.
+   */
+  private void compileFromDescriptorSet(File stagingDir, File outputBaseDir, List<File> protoFiles) {
+    if (protoFiles.isEmpty()) {
+      createOutputDirs(stagingDir)
+      return
+    }
+    String protocPath = computeExecutablePath(toolsLocator.get().protoc)
+    File descriptorsDir = new File(temporaryDir, "descriptors")
+    copyActionFacade.delete { spec ->
+      spec.delete(descriptorsDir)
+    }
+    descriptorsDir.mkdirs()
+
+    // Batches only differ by the name of their descriptor set, which has the same length
+    String firstSetArg = "--descriptor_set_out=${new File(descriptorsDir, descriptorSetName(0))}".toString()
+    List<String> parseCmd = [protocPath]
+    parseCmd.addAll(includeDirArgs())
+    parseCmd.addAll([firstSetArg, "--include_imports", "--include_source_info"])
+    List<File> descriptorSets = []
+    if (useArgumentFile.get() && runWithArgumentFile(parseCmd, protoFiles)) {
+      descriptorSets.add(new File(descriptorsDir, descriptorSetName(0)))
+    } else {
+      List<List<String>> parseCmds = generateCmds(parseCmd, protoFiles, getCmdLengthLimit())
+      parseCmds.eachWithIndex { List<String> cmd, int i ->
+        File descriptorSet = new File(descriptorsDir, descriptorSetName(i))
+        cmd.set(cmd.indexOf(firstSetArg), "--descriptor_set_out=${descriptorSet}".toString())
+        descriptorSets.add(descriptorSet)
+      }
+      runCmds(parseCmds, (0..<parseCmds.size()).collect { int i ->
+        return ProtocRunner.batchLabel("protoc parse", i, parseCmds.size())
+      })
+    }
+
+    // Names as protoc knows them, i.e., relative to the source directory that has them
+    List<String> names = sourceProtosByPath().keySet().sort()
+    String setsArg = "--descriptor_set_in=${descriptorSets*.path.join(File.pathSeparator)}".toString()
+    createOutputDirs(stagingDir)
+    Map<String, List<String>> generatorCmds = [:]
+    builtins.each { builtin ->
+      String outDir = outputDirUnder(stagingDir, builtin)
+      generatorCmds.put(builtin.name, [protocPath, setsArg,
+          "--${builtin.name}_out=${makeOptionsPrefix(builtin.options)}${outDir}".toString(),
+      ])
+    }
+    Map<String, String> pluginPaths = computePluginPaths()
+    plugins.each { plugin ->
+      List<String> cmd = [protocPath, setsArg]
+      String pluginPath = pluginPaths.get(plugin.name)
+      if (pluginPath != null) {
+        cmd.add("--plugin=protoc-gen-${plugin.name}=${pluginPath}".toString())
+      }
+      String outDir = outputDirUnder(stagingDir, plugin)
+      cmd.add("--${plugin.name}_out=${makeOptionsPrefix(plugin.options)}${outDir}".toString())
+      generatorCmds.put("protoc-gen-${plugin.name}".toString(), cmd)
+    }
+    if (generateDescriptorSet) {
+      File descriptorSet = new File(stagedPath(getDescriptorPath(), outputBaseDir, stagingDir))
+      descriptorSet.parentFile.mkdirs()
+      List<String> cmd = [protocPath, setsArg, "--descriptor_set_out=${descriptorSet}".toString()]
+      if (descriptorSetOptions.includeImports) {
+        cmd.add("--include_imports")
+      }
+      if (descriptorSetOptions.includeSourceInfo) {
+        cmd.add("--include_source_info")
+      }
+      generatorCmds.put("descriptor set", cmd)
+    }
+
+    List<List<String>> cmds = []
+    List<String> labels = []
+    generatorCmds.each { String generator, List<String> baseCmd ->
+      List<List<String>> batches = generateCmdsForNames(baseCmd, names, getCmdLengthLimit())
+      batches.eachWithIndex { List<String> cmd, int i ->
+        cmds.add(cmd)
+        labels.add(ProtocRunner.batchLabel("protoc ${generator}".toString(), i, batches.size()))
+      }
+    }
+    runCmds(cmds, labels)
+  }
+
+  /**
+   * Deletes the files under {@code outputBaseDir} that were not generated, given the
+   * relative paths of those that were, and the staging directory they came from.
+   */
+  private void finishPublishing(File outputBaseDir, Collection<String> generated, int written, File stagingDir) {
+    PluginEvents.Span span = PluginEvents.start("clean up outputs", path).files(generated.size())
+    int deleted
+    try {
+      deleted = StagedOutputs.deleteStale(outputBaseDir, generated)
+      span.changedFiles(deleted)
+    } finally {
+      span.end()
+    }
+    createOutputDirs(outputBaseDir)
+    copyActionFacade.delete { spec ->
+      spec.delete(stagingDir)
+    }
+    logger.info("${path}: ${written} of ${generated.size()} generated file(s) changed, ${deleted} deleted")
+  }
+
+  /**
+   * Returns the protoc command line, without the proto files, that writes the
+   * outputs of all builtins and plugins under {@code outputBase}.
+   */
+  private List<String> buildBaseCmd(File outputBase, String protocPath, Map<String, String> pluginPaths) {
+    createOutputDirs(outputBase)
 
-    String protocPath = computeExecutablePath(toolsLocator.protoc)
     List<String> baseCmd = [ protocPath ]
-    baseCmd.addAll(dirs)
+    baseCmd.addAll(includeDirArgs())
 
     // Handle code generation built-ins
     builtins.each { builtin ->
       String outPrefix = makeOptionsPrefix(builtin.options)
-      baseCmd += "--${builtin.name}_out=${outPrefix}${getOutputDir(builtin)}".toString()
+      baseCmd += "--${builtin.name}_out=${outPrefix}${outputDirUnder(outputBase, builtin)}".toString()
     }
 
-    Map<String, ExecutableLocator> executableLocations = toolsLocator.plugins.asMap
     // Handle code generation plugins
+    plugins.each { plugin ->
+      String name = plugin.name
+      String pluginPath = pluginPaths.get(name)
+      if (pluginPath != null) {
+        baseCmd += "--plugin=protoc-gen-${name}=${pluginPath}".toString()
+      }
+      String pluginOutPrefix = makeOptionsPrefix(plugin.options)
+      baseCmd += "--${name}_out=${pluginOutPrefix}${outputDirUnder(outputBase, plugin)}".toString()
+    }
+    return baseCmd
+  }
+
+  private List<String> includeDirArgs() {
+    // The source directory designated from sourceSet may not actually exist on disk.
+    // "include" it only when it exists, so that Gradle and protoc won't complain.
+    List<String> dirs = includeDirs.filter { File file -> file.exists() }*.path
+        .collect { String dir -> "-I${dir}".toString() }
+    logger.debug "ProtobufCompile using directories ${dirs}"
+    return dirs
+  }
+
+  /**
+   * Runs protoc once for all the proto files, passing its arguments in a response file.
+   * Returns false if the arguments cannot be passed that way, or if protoc rejected the
+   * response file, in which case nothing was generated.
+   */
+  private boolean runWithArgumentFile(List<String> baseCmd, List<File> protoFiles) {
+    List<String> args = baseCmd.tail() + protoFiles*.path
+    String content = argumentFileContent(args)
+    if (content == null) {
+      logger.info("${path}: an argument contains a line break, not using a protoc response file")
+      return false
+    }
+    File argumentFile = new File(temporaryDir, "protoc.args")
+    argumentFile.setText(content, 'UTF-8')
+    String argument = "@${argumentFile.path}".toString()
+    try {
+      ProtocRunner.run([baseCmd.head(), argument], "protoc", 0, logger, processLimiter.getOrNull(),
+          countJvmProcesses())
+    } catch (GradleException e) {
+      // protoc versions without response file support take the argument for a proto file
+      if (!e.message.contains(argument)) {
+        throw e
+      }
+      logger.warn("${path}: protoc does not support response files, running it once per batch of files. " +
+          "Set useArgumentFile to false to skip this attempt. ${e.message}")
+      return false
+    }
+    return true
+  }
+
+  private void createOutputDirs(File outputBase) {
+    [builtins, plugins]*.forEach { PluginOptions plugin ->
+      String outputPath = outputDirUnder(outputBase, plugin)
+      File outputDir = new File(outputPath)
+      // protoc is capable of output generated files directly to a JAR file
+      // or ZIP archive if the output location ends with .jar/.zip
+      if (outputPath.endsWith(".jar") || outputPath.endsWith(".zip")) {
+        outputDir = outputDir.getParentFile()
+      }
+      outputDir.mkdirs()
+    }
+  }
+
+  /**
+   * Returns the executable of each plugin of this task that is defined in the
+   * protobuf.plugins block.
+   */
+  private Map<String, String> computePluginPaths() {
+    Map<String, ExecutableLocator> executableLocations = toolsLocator.get().plugins.asMap
+    Map<String, String> pluginPaths = [:]
     plugins.each { plugin ->
       String name = plugin.name
       ExecutableLocator locator = executableLocations.get(name)
       if (locator != null) {
-        baseCmd += "--plugin=protoc-gen-${name}=${computeExecutablePath(locator)}".toString()
+        String pluginPath = executablePathOf(locator, true)
+        pluginPaths.put(name, useResponseCache() ? createResponseCacheShim(name, pluginPath, locator) : pluginPath)
       } else {
         logger.warn "protoc plugin '${name}' not defined. Trying to use 'protoc-gen-${name}' from system path"
       }
-      String pluginOutPrefix = makeOptionsPrefix(plugin.options)
-      baseCmd += "--${name}_out=${pluginOutPrefix}${getOutputDir(plugin)}".toString()
     }
+    return pluginPaths
+  }
 
-    if (generateDescriptorSet) {
-      String path = getDescriptorPath()
-      // Ensure that the folder for the descriptor exists;
-      // the user may have set it to point outside an existing tree
-      File folder = new File(path).parentFile
-      if (!folder.exists()) {
-        folder.mkdirs()
+  private boolean useResponseCache() {
+    return cachePluginResponses.get() && !Utils.isWindows() && pluginResponseCache.present
+  }
+
+  /**
+   * Returns a shim that runs the plugin at {@code pluginPath}, found by {@code locator},
+   * through the plugin response cache.
+   */
+  private String createResponseCacheShim(String name, String pluginPath, ExecutableLocator locator) {
+    File plugin = locator.path != null ? new File(locator.path) : locator.artifactFiles.singleFile
+    File cacheDir = pluginResponseCache.get().use()
+    try {
+      String shim = PluginResponseCache.shim(cacheDir, pluginPath, PluginResponseCache.pluginKey(plugin))
+      if (toolRegistry.present) {
+        return toolRegistry.get().stageScript("protoc-gen-${name}-cached.sh".toString(), shim, US_ASCII.name())
       }
-      baseCmd += "--descriptor_set_out=${path}".toString()
-      if (descriptorSetOptions.includeImports) {
-        baseCmd += "--include_imports"
+      File shimFile = new File(
+          "${projectLayout.buildDirectory.get()}/scripts/protoc-gen-${name}-${getName()}-cached.sh")
+      mkdirsForFile(shimFile)
+      shimFile.write(shim, US_ASCII.name())
+      setExecutableOrFail(shimFile)
+      return shimFile.path
+    } catch (IOException e) {
+      throw new GradleException("Unable to generate the response cache shim of protoc plugin '${name}'", e)
+    }
+  }
+
+  private boolean supportsIncrementalGeneration() {
+    return !generateDescriptorSet && [builtins, plugins].every { Collection<PluginOptions> options ->
+      options.every { PluginOptions plugin ->
+        !plugin.outputSubDir.endsWith(".jar") && !plugin.outputSubDir.endsWith(".zip")
       }
-      if (descriptorSetOptions.includeSourceInfo) {
-        baseCmd += "--include_source_info"
+    }
+  }
+
+  /**
+   * Regenerates the protos that changed and the protos that import them, and deletes
+   * the files generated for protos that were removed. A few protos are compiled each on
+   * its own into a staging directory, so that the files it generates can be recorded;
+   * more are compiled in batches, like a full generation, and the files of a batch are
+   * recorded for all of its protos. Everything is regenerated if there is no record of
+   * a previous execution.
+   */
+  private void compileIncrementally(InputChanges inputChanges) {
+    File outputBaseDir = outputBaseDirProperty.get().asFile
+    File stateFile = new File(outputBaseDir, IncrementalGenerationState.FILE_NAME)
+    IncrementalGenerationState generationState =
+        inputChanges.incremental ? IncrementalGenerationState.read(stateFile) : null
+    Map<String, File> protos = sourceProtosByPath()
+    Collection<String> dirty
+    if (generationState == null) {
+      generationState = new IncrementalGenerationState()
+      dirty = protos.keySet()
+    } else {
+      // Written again once generation succeeds; without it the next execution starts over.
+      stateFile.delete()
+      Set<String> changed = changedPaths(inputChanges, sourceDirs)
+      Set<String> changedIncludes = changedPaths(inputChanges, includeDirs)
+      Set<String> removed = changed.findAll { String proto -> !protos.containsKey(proto) }
+      Set<String> affected = (changed + changedIncludes) as Set<String>
+      Map<String, List<String>> includeImports = changedIncludes.isEmpty() ? [:] : includeProtoImports()
+      Set<String> stale = generationState.withBatchMembers(
+          (changed + generationState.dependentsOf(affected, includeImports)) as Set<String>)
+      dirty = stale.findAll { String proto -> protos.containsKey(proto) }
+      // Their files are deleted below unless they are generated again
+      stale.each { String proto ->
+        generationState.remove(proto)
+      }
+      logger.info("${path}: ${removed.size()} removed proto(s), regenerating ${dirty.size()} " +
+          "of ${protos.size()} proto(s)")
+    }
+
+    List<String> dirtyProtos = dirty.toSorted()
+    File stagingRoot = new File(temporaryDir, "incremental")
+    copyActionFacade.delete { spec ->
+      spec.delete(stagingRoot)
+    }
+    String protocPath = computeExecutablePath(toolsLocator.get().protoc)
+    Map<String, String> pluginPaths = computePluginPaths()
+    List<List<String>> invocations =
+        splitIncrementalInvocations(dirtyProtos, protos, stagingRoot, protocPath, pluginPaths)
+    List<List<String>> cmds = []
+    List<String> labels = []
+    invocations.eachWithIndex { List<String> invocation, int i ->
+      List<String> cmd = buildBaseCmd(incrementalStagingDir(stagingRoot, i), protocPath, pluginPaths)
+      invocation.each { String proto -> cmd.add(protos[proto].path) }
+      cmds.add(cmd)
+      labels.add(invocation.size() == 1 ? "protoc (${invocation[0]})".toString()
+          : ProtocRunner.batchLabel(i, invocations.size()))
+    }
+    runCmds(cmds, labels)
+
+    int written = 0
+    invocations.eachWithIndex { List<String> invocation, int i ->
+      StagedOutputs.Result result = StagedOutputs.publishAll(incrementalStagingDir(stagingRoot, i), outputBaseDir)
+      written += result.written
+      invocation.each { String proto ->
+        generationState.imports.put(proto, IncrementalGenerationState.parseImports(protos[proto]))
+      }
+      generationState.recordOutputs(invocation, result.files)
+    }
+    finishPublishing(outputBaseDir, generationState.outputs.values().flatten() as List<String>, written, stagingRoot)
+    generationState.write(stateFile)
+  }
+
+  /**
+   * Returns the protos compiled by each protoc invocation of an incremental generation:
+   * one invocation per proto if there are at most
+   * {@link #MAX_SEPARATELY_GENERATED_PROTOS}, otherwise batches as long as the command
+   * line allows.
+   */
+  private List<List<String>> splitIncrementalInvocations(
+      List<String> dirtyProtos, Map<String, File> protos, File stagingRoot,
+      String protocPath, Map<String, String> pluginPaths) {
+    if (dirtyProtos.size() <= MAX_SEPARATELY_GENERATED_PROTOS) {
+      return dirtyProtos.collect { String proto -> [proto] }
+    }
+    // All staging dirs have names of the same length, so any of them sizes the batches
+    List<String> baseCmd = buildBaseCmd(incrementalStagingDir(stagingRoot, 0), protocPath, pluginPaths)
+    Map<String, String> protosByFilePath = dirtyProtos.collectEntries { String proto ->
+      [(protos[proto].path): proto]
+    } as Map<String, String>
+    return generateCmdsForNames(baseCmd, protosByFilePath.keySet().toList(), getCmdLengthLimit())
+        .collect { List<String> cmd ->
+          cmd.subList(baseCmd.size(), cmd.size()).collect { String filePath -> protosByFilePath[filePath] }
+        }
+  }
+
+  private static File incrementalStagingDir(File stagingRoot, int invocation) {
+    return new File(stagingRoot, String.format("%06d", invocation))
+  }
+
+  private Map<String, File> sourceProtosByPath() {
+    Map<String, File> protos = [:]
+    sourceDirs.asFileTree.visit { FileVisitDetails details ->
+      if (!details.directory) {
+        protos.put(details.relativePath.pathString, details.file)
       }
     }
+    return protos
+  }
 
-    List<List<String>> cmds = generateCmds(baseCmd, protoFiles, getCmdLengthLimit())
-    for (List<String> cmd : cmds) {
-      compileFiles(cmd)
+  private Map<String, List<String>> includeProtoImports() {
+    Map<String, List<String>> imports = [:]
+    includeDirs.filter { File file -> file.exists() }.asFileTree.visit { FileVisitDetails details ->
+      if (!details.directory && details.name.endsWith(".proto")) {
+        // Like protoc, resolve an import path to the first include dir that has it
+        imports.putIfAbsent(details.relativePath.pathString, IncrementalGenerationState.parseImports(details.file))
+      }
     }
+    return imports
   }
 
   /**
@@ -700,30 +1428,95 @@ public abstract class GenerateProtoTask extends DefaultTask {
         'Should not be called after configuration has finished')
   }
 
-  private void compileFiles(List<String> cmd) {
-    logger.log(LogLevel.INFO, cmd.toString())
+  /**
+   * Runs the commands, one after another or, if {@link #getMaxParallelInvocations()}
+   * allows, spread over that many work items that each run their share of the
+   * commands in order. Waits for all of them, so that a failing command fails the
+   * task with its output, which is reported under the given label.
+   */
+  private void runCmds(List<List<String>> cmds, List<String> labels) {
+    int parallelism = Math.min(maxParallelInvocations.get(), cmds.size())
+    int jvmProcesses = countJvmProcesses()
+    if (parallelism <= 1) {
+      cmds.eachWithIndex { List<String> cmd, int i ->
+        ProtocRunner.run(cmd, labels[i], i, logger, processLimiter.getOrNull(), jvmProcesses)
+      }
+      return
+    }
+    List<List<List<String>>> laneCmds = (0..<parallelism).collect { [] as List<List<String>> }
+    List<List<String>> laneLabels = (0..<parallelism).collect { [] as List<String> }
+    List<List<Integer>> laneBatches = (0..<parallelism).collect { [] as List<Integer> }
+    cmds.eachWithIndex { List<String> cmd, int i ->
+      laneCmds[i % parallelism].add(cmd)
+      laneLabels[i % parallelism].add(labels[i])
+      laneBatches[i % parallelism].add(i)
+    }
+    WorkQueue queue = workerExecutor.noIsolation()
+    String taskPath = path
+    for (int lane = 0; lane < parallelism; lane++) {
+      List<List<String>> commands = laneCmds[lane]
+      List<String> commandLabels = laneLabels[lane]
+      List<Integer> commandBatches = laneBatches[lane]
+      queue.submit(ProtocWorkAction) { ProtocWorkAction.Parameters parameters ->
+        parameters.commands.set(commands)
+        parameters.labels.set(commandLabels)
+        parameters.batches.set(commandBatches)
+        parameters.taskPath.set(taskPath)
+        parameters.metrics.set(metrics)
+        parameters.trace.set(trace)
+        parameters.processLimiter.set(processLimiter)
+        parameters.jvmProcesses.set(jvmProcesses)
+      }
+    }
+    queue.await()
+  }
 
-    StringBuffer stdout = new StringBuffer()
-    StringBuffer stderr = new StringBuffer()
-    Process result = cmd.execute()
-    result.waitForProcessOutput(stdout, stderr)
-    String output = "protoc: stdout: ${stdout}. stderr: ${stderr}"
-    if (result.exitValue() == 0) {
-      logger.log(LogLevel.INFO, output)
-    } else {
-      throw new GradleException(output)
+  /**
+   * Returns how many JVMs a protoc invocation of this task starts, i.e., how many of
+   * protoc and its plugins are run through a jar trampoline script. Plugins run by the
+   * plugin host don't start one.
+   */
+  private int countJvmProcesses() {
+    Map<String, ExecutableLocator> executableLocations = toolsLocator.get().plugins.asMap
+    List<ExecutableLocator> locators = [toolsLocator.get().protoc]
+    if (!usePluginHost.get() || Utils.isWindows()) {
+      plugins.each { plugin ->
+        ExecutableLocator locator = executableLocations.get(plugin.name)
+        if (locator != null) {
+          locators.add(locator)
+        }
+      }
     }
+    return locators.count { ExecutableLocator locator ->
+      String path = locator.path != null ? locator.path : locator.artifactFiles.singleFile.name
+      return path.endsWith(JAR_SUFFIX)
+    } as int
   }
 
   protected String computeExecutablePath(ExecutableLocator locator) {
+    return executablePathOf(locator, false)
+  }
+
+  private String executablePathOf(ExecutableLocator locator, boolean isPlugin) {
     if (locator.path != null) {
-      return locator.path.endsWith(JAR_SUFFIX) ? createJarTrampolineScript(locator.path) : locator.path
+      return locator.path.endsWith(JAR_SUFFIX) ? createJarTrampolineScript(locator.path, isPlugin) : locator.path
+    }
+    PluginEvents.Span resolveSpan = PluginEvents.start("resolve tool", locator.name)
+    File file
+    try {
+      file = locator.artifactFiles.singleFile
+    } finally {
+      resolveSpan.end()
     }
-    File file = locator.artifactFiles.singleFile
     if (file.name.endsWith(JAR_SUFFIX)) {
-      return createJarTrampolineScript(file.getAbsolutePath())
+      return createJarTrampolineScript(file.getAbsolutePath(), isPlugin)
     }
 
+    if (toolRegistry.present) {
+      String staged = toolRegistry.get().stageArtifact(file)
+      logger.info("Resolved artifact: ${file}, staged at ${staged}")
+      return staged
+    }
     if (!file.canExecute() && !file.setExecutable(true)) {
       throw new GradleException("Cannot set ${file} as executable")
     }
@@ -736,28 +1529,64 @@ public abstract class GenerateProtoTask extends DefaultTask {
    * script to execute the jar file. Assume the jar is a "fat jar" or "uber jar" and don't attempt any artifact
    * resolution.
    * @param jarAbsolutePath Absolute path to the .jar file.
+   * @param isPlugin Whether the jar is a plugin, which may run on the plugin host.
    * @return The absolute path to the trampoline executable script.
    */
-  private String createJarTrampolineScript(String jarAbsolutePath) {
+  private String createJarTrampolineScript(String jarAbsolutePath, boolean isPlugin) {
+    PluginEvents.Span span = PluginEvents.start("trampoline", jarAbsolutePath)
+    try {
+      return writeJarTrampolineScript(jarAbsolutePath, isPlugin)
+    } finally {
+      span.end()
+    }
+  }
+
+  private String writeJarTrampolineScript(String jarAbsolutePath, boolean isPlugin) {
     assert jarAbsolutePath.endsWith(JAR_SUFFIX)
     boolean isWindows = Utils.isWindows()
     String jarFileName = new File(jarAbsolutePath).getName()
     if (jarFileName.length() <= JAR_SUFFIX.length()) {
       throw new GradleException(".jar protoc plugin path '${jarAbsolutePath}' has no file name")
     }
+    String jarBaseName = jarFileName[0..(jarFileName.length() - JAR_SUFFIX.length() - 1)]
     File scriptExecutableFile = new File("${projectLayout.buildDirectory.get()}/scripts/" +
-            jarFileName[0..(jarFileName.length() - JAR_SUFFIX.length() - 1)] + "-${getName()}-trampoline." +
-            (isWindows ? "bat" : "sh"))
+            jarBaseName + "-${getName()}-trampoline." + (isWindows ? "bat" : "sh"))
     try {
-      mkdirsForFile(scriptExecutableFile)
       String javaExe = javaExecutablePath.get()
+      String trampoline
+      PluginHostService.Endpoint host = !isWindows && isPlugin && usePluginHost.get() ?
+          pluginHost.get().hostFor(javaExe) : null
+      host?.allow(jarAbsolutePath)
+      // The plugin host trampoline holds the address of this build's host
+      boolean perBuild = false
+      if (isWindows) {
+        trampoline = "@ECHO OFF\r\n\"${escapePathWindows(javaExe)}\" " +
+            "-jar \"${escapePathWindows(jarAbsolutePath)}\" %*\r\n"
+      } else if (host != null) {
+        trampoline = pluginHostTrampoline(host, javaExe, jarAbsolutePath)
+        perBuild = true
+      } else if (useClassDataSharing.get() && classDataSharing.present && ClassDataSharing.isSupported(javaExe)) {
+        File archive = classDataSharing.get().archiveFor(new File(jarAbsolutePath), javaExe)
+        trampoline = ClassDataSharing.trampoline(javaExe, jarAbsolutePath, archive)
+      } else {
+        trampoline = "#!/bin/sh\nexec '${escapePathUnix(javaExe)}' -jar '${escapePathUnix(jarAbsolutePath)}' \"\$@\"\n"
+      }
+      if (!perBuild && toolRegistry.present) {
+        String staged = toolRegistry.get().stageScript(
+            "${jarBaseName}-trampoline.${isWindows ? "bat" : "sh"}".toString(), trampoline, US_ASCII.name())
+        logger.info("Resolved artifact jar: ${jarAbsolutePath}. " +
+                "Using trampoline file: ${staged} with java executable ${javaExe}")
+        return staged
+      }
+      mkdirsForFile(scriptExecutableFile)
       // Rewrite the trampoline file unconditionally (even if it already exists) in case the dependency or versioning
       // changes we don't need to detect the delta (and the file content is cheap to re-generate).
-      String trampoline = isWindows ?
-              "@ECHO OFF\r\n\"${escapePathWindows(javaExe)}\" -jar \"${escapePathWindows(jarAbsolutePath)}\" %*\r\n" :
-              "#!/bin/sh\nexec '${escapePathUnix(javaExe)}' -jar '${escapePathUnix(jarAbsolutePath)}' \"\$@\"\n"
-      scriptExecutableFile.write(trampoline, US_ASCII.name())
-      setExecutableOrFail(scriptExecutableFile)
+      if (host != null) {
+        writeOwnerOnlyExecutable(scriptExecutableFile, trampoline)
+      } else {
+        scriptExecutableFile.write(trampoline, US_ASCII.name())
+        setExecutableOrFail(scriptExecutableFile)
+      }
       logger.info("Resolved artifact jar: ${jarAbsolutePath}. " +
               "Created trampoline file: ${scriptExecutableFile} with java executable ${javaExe}")
       return scriptExecutableFile.path
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonException
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * What an incremental {@link GenerateProtoTask} remembers between executions: the
+ * imports of each source proto and the files generated for it. Protos that were
+ * generated together by one protoc invocation share their files, which are recorded
+ * under the batch, and are regenerated together. Protos are identified by their import
+ * path, e.g., "foo/bar.proto"; generated files by their path relative to the output
+ * base directory.
+ */
+@CompileStatic
+@PackageScope
+class IncrementalGenerationState {
+  static final String FILE_NAME = "incremental-state.json"
+  private static final int VERSION = 2
+  private static final Pattern IMPORT_PATTERN =
+      Pattern.compile(/(?m)^\s*import\s+(?:public\s+|weak\s+)?"([^"]+)"\s*;/)
+
+  final Map<String, List<String>> imports = new TreeMap<String, List<String>>()
+  final Map<String, List<String>> outputs = new TreeMap<String, List<String>>()
+  // The batch of each proto that was not generated on its own; outputs are keyed by it
+  final Map<String, String> batches = new TreeMap<String, String>()
+
+  /**
+   * Returns the import paths of the given proto file.
+   */
+  static List<String> parseImports(File proto) {
+    List<String> result = []
+    Matcher matcher = IMPORT_PATTERN.matcher(proto.getText("UTF-8"))
+    while (matcher.find()) {
+      result.add(matcher.group(1))
+    }
+    return result
+  }
+
+  /**
+   * Reads the state written by a previous execution, or returns null if there is none
+   * that can be used.
+   */
+  static IncrementalGenerationState read(File file) {
+    if (!file.isFile()) {
+      return null
+    }
+    Map<String, Object> json
+    try {
+      json = new JsonSlurper().parse(file, "UTF-8") as Map<String, Object>
+    } catch (JsonException ignored) {
+      return null
+    }
+    if (json.get("version") != VERSION) {
+      return null
+    }
+    IncrementalGenerationState state = new IncrementalGenerationState()
+    state.imports.putAll(json.get("imports") as Map<String, List<String>>)
+    state.outputs.putAll(json.get("outputs") as Map<String, List<String>>)
+    state.batches.putAll(json.get("batches") as Map<String, String>)
+    return state
+  }
+
+  void write(File file) {
+    GenerateProtoTask.mkdirsForFile(file)
+    file.setText(JsonOutput.toJson(
+        [version: VERSION, imports: imports, outputs: outputs, batches: batches]), "UTF-8")
+  }
+
+  /**
+   * Records the files generated by one protoc invocation for the given source protos.
+   */
+  void recordOutputs(List<String> protos, List<String> generated) {
+    if (protos.size() == 1) {
+      outputs.put(protos[0], generated)
+      return
+    }
+    // The members of an earlier batch keyed the same way were all regenerated with it
+    String batch = "batch:${protos[0]}".toString()
+    outputs.put(batch, generated)
+    protos.each { String proto ->
+      batches.put(proto, batch)
+    }
+  }
+
+  /**
+   * Returns the given protos and the protos that were generated in a batch with any
+   * of them, and so have to be generated again with them.
+   */
+  Set<String> withBatchMembers(Collection<String> protos) {
+    Set<String> dirtyBatches = protos.collect { String proto -> batches.get(proto) }.findAll() as Set<String>
+    Set<String> result = new TreeSet<String>(protos)
+    batches.each { String proto, String batch ->
+      if (dirtyBatches.contains(batch)) {
+        result.add(proto)
+      }
+    }
+    return result
+  }
+
+  /**
+   * Forgets everything about the given source proto and returns the files that were
+   * generated for it, or for its batch.
+   */
+  List<String> remove(String proto) {
+    imports.remove(proto)
+    String batch = batches.remove(proto)
+    List<String> generated = outputs.remove(batch != null ? batch : proto)
+    return generated != null ? generated : []
+  }
+
+  /**
+   * Returns the source protos that import any of the given protos, directly or
+   * transitively. {@code additionalImports} adds the imports of protos that are not
+   * sources, e.g., of those in the include path.
+   */
+  Set<String> dependentsOf(Collection<String> protos, Map<String, List<String>> additionalImports) {
+    Map<String, Set<String>> importedBy = [:]
+    [additionalImports, imports].each { Map<String, List<String>> graph ->
+      graph.each { String proto, List<String> protoImports ->
+        protoImports.each { String imported ->
+          importedBy.computeIfAbsent(imported) { [] as Set<String> }.add(proto)
+        }
+      }
+    }
+    Set<String> visited = [] as Set
+    Deque<String> pending = new ArrayDeque<String>(protos)
+    while (!pending.isEmpty()) {
+      importedBy.getOrDefault(pending.poll(), [] as Set<String>).each { String dependent ->
+        if (visited.add(dependent)) {
+          pending.add(dependent)
+        }
+      }
+    }
+    return visited.findAll { String proto -> imports.containsKey(proto) }
+  }
+}
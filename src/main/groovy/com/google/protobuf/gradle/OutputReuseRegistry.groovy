@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import org.gradle.api.Project
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A build service through which tasks that would produce identical outputs, e.g., the
+ * generate tasks of Android variants compiling the same protos with the same options,
+ * produce them only once per build. A task whose inputs match those of a task that
+ * already produced its outputs copies them into its own output directory. Tasks never
+ * wait for each other: a task whose match is still producing produces its own outputs.
+ *
+ * <p>Inputs are described by a shape, e.g., the options and the paths and sizes of the
+ * input files, and the files whose content must also match. The content is only hashed
+ * when a task of the same shape has produced its outputs, and at most once per task.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class OutputReuseRegistry implements BuildService<BuildServiceParameters.None> {
+  static final String NAME = "protobufOutputReuse"
+
+  // The tasks that produced, or are producing, their outputs, by shape
+  private final Map<String, List<Producer>> producers = new ConcurrentHashMap<>()
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<OutputReuseRegistry> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, OutputReuseRegistry) { }
+  }
+
+  /**
+   * Returns the claim of a task with inputs of the given shape and content. If its
+   * {@link Claim#producedDir} is not null, another task produced identical outputs there.
+   * Otherwise the task produces its own, then calls {@link #produced} or {@link #failed}.
+   */
+  Claim claim(String shape, List<File> contents) {
+    List<Producer> sameShape = producers.computeIfAbsent(shape) { String ignored -> [] }
+    Producer mine = new Producer(sameShape, contents)
+    List<Producer> candidates
+    synchronized (sameShape) {
+      candidates = new ArrayList<Producer>(sameShape)
+      sameShape.add(mine)
+    }
+    for (Producer candidate : candidates) {
+      File dir = candidate.dir
+      if (dir != null && candidate.digest() == mine.digest()) {
+        synchronized (sameShape) {
+          sameShape.remove(mine)
+        }
+        return new Claim(dir, null)
+      }
+    }
+    return new Claim(null, mine)
+  }
+
+  /**
+   * Records that the outputs of {@code claim} are in {@code dir}.
+   */
+  void produced(Claim claim, File dir) {
+    claim.producer?.dir = dir
+  }
+
+  /**
+   * Records that the outputs of {@code claim} could not be produced.
+   */
+  void failed(Claim claim) {
+    Producer producer = claim.producer
+    if (producer != null) {
+      synchronized (producer.sameShape) {
+        producer.sameShape.remove(producer)
+      }
+    }
+  }
+
+  /**
+   * The outcome of {@link #claim}.
+   */
+  static class Claim {
+    /** Where another task produced identical outputs, or null. */
+    final File producedDir
+    @PackageScope final Producer producer
+
+    @PackageScope
+    Claim(File producedDir, Producer producer) {
+      this.producedDir = producedDir
+      this.producer = producer
+    }
+  }
+
+  private static class Producer {
+    final List<Producer> sameShape
+    final List<File> contents
+    // Set once the outputs are produced
+    volatile File dir
+    private String contentDigest
+
+    Producer(List<Producer> sameShape, List<File> contents) {
+      this.sameShape = sameShape
+      this.contents = contents
+    }
+
+    synchronized String digest() {
+      if (contentDigest == null) {
+        contentDigest = contents.collect { File file -> Utils.sha256(file) }.join("\n").digest("SHA-256")
+      }
+      return contentDigest
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+/**
+ * Follows the peak resident set size of a running process, as reported by the VmHWM
+ * line of {@code /proc/<pid>/status} on Linux. The kernel keeps the peak, but it goes away
+ * with the process, so a thread reads it until the process exits. Processes that exit
+ * before the first read report no peak.
+ *
+ * <p>Only the process itself is measured, not the plugins protoc starts.
+ */
+@CompileStatic
+@PackageScope
+final class PeakRssSampler {
+  private static final long INTERVAL_MILLIS = 20
+
+  private final File status
+  private final Thread thread
+  private volatile long peakKb = -1
+  private volatile boolean stopped
+
+  private PeakRssSampler(long pid) {
+    this.status = new File("/proc/${pid}/status")
+    this.thread = new Thread({ sample() } as Runnable, "protobuf peak RSS of ${pid}")
+    thread.daemon = true
+  }
+
+  /**
+   * Returns true if the peak of processes can be followed on this system.
+   */
+  static boolean isSupported() {
+    return new File("/proc/self/status").isFile()
+  }
+
+  /**
+   * Starts following the given process. Call {@link #stop()} once it exited.
+   */
+  static PeakRssSampler start(Process process) {
+    PeakRssSampler sampler = new PeakRssSampler(process.pid())
+    sampler.thread.start()
+    return sampler
+  }
+
+  /**
+   * Parses the VmHWM of the given status file content, in kB, or returns -1 if it has none.
+   */
+  static long parseVmHwmKb(String content) {
+    for (String line : content.readLines()) {
+      if (line.startsWith("VmHWM:")) {
+        String[] fields = line.substring("VmHWM:".length()).trim().split(/\s+/)
+        return Long.parseLong(fields[0])
+      }
+    }
+    return -1
+  }
+
+  /**
+   * Stops following the process and returns its peak, in kB, or -1 if it was not read.
+   */
+  long stop() {
+    stopped = true
+    thread.interrupt()
+    try {
+      thread.join()
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt()
+    }
+    return peakKb
+  }
+
+  private void sample() {
+    while (!stopped) {
+      try {
+        long kb = parseVmHwmKb(status.text)
+        if (kb >= 0) {
+          peakKb = kb
+        }
+        Thread.sleep(INTERVAL_MILLIS)
+      } catch (IOException ignored) {
+        // The process exited
+        return
+      } catch (InterruptedException ignored) {
+        return
+      }
+    }
+  }
+}
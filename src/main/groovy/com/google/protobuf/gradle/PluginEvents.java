@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.gradle.api.provider.Provider;
+
+/**
+ * Measures the phases of the plugin's work: scanning and extracting archives, syncing
+ * extracted protos, resolving tools, creating trampolines, running protoc and cleaning up
+ * outputs. Each phase is emitted as a {@code com.google.protobuf.gradle.Phase} JDK Flight
+ * Recorder event, so that a recording of the Gradle daemon shows the time of the plugin
+ * next to the time of protoc, and is passed to the listeners of the task it works for,
+ * i.e., the build services of the build that runs the task, such as {@link ProtobufMetrics}.
+ *
+ * <p>Not for external use.
+ */
+final class PluginEvents {
+  private static final boolean JFR_AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+  // The task the current thread works for, if any
+  private static final ThreadLocal<TaskContext> CURRENT_TASK = new ThreadLocal<>();
+
+  private PluginEvents() {
+    // do not instantiate
+  }
+
+  /**
+   * Gets the phases of the tasks it is passed to once they end, on the thread that ran them.
+   */
+  interface Listener {
+    void phaseEnded(Phase phase);
+  }
+
+  /**
+   * Returns the listeners provided by the given build services, skipping the ones that
+   * are not set, i.e., the listeners of a task.
+   */
+  @SafeVarargs
+  static List<Listener> listeners(Provider<? extends Listener>... services) {
+    List<Listener> listeners = new ArrayList<>();
+    for (Provider<? extends Listener> service : services) {
+      Listener listener = service.getOrNull();
+      if (listener != null) {
+        listeners.add(listener);
+      }
+    }
+    return listeners;
+  }
+
+  /**
+   * Returns true if a listener gets the phases started on the current thread, i.e., if it
+   * is worth measuring values that only listeners use.
+   */
+  static boolean hasListeners() {
+    TaskContext context = CURRENT_TASK.get();
+    return context != null && !context.listeners.isEmpty();
+  }
+
+  /**
+   * Starts measuring a phase, e.g., "protoc", of the given detail, e.g., the label of
+   * the invocation. The returned span must be ended once the phase is done.
+   */
+  static Span start(String name, String detail) {
+    return new Span(name, detail);
+  }
+
+  /**
+   * Starts measuring the action of the task with the given path. Until the returned span
+   * ends, the phases started on the current thread are attributed to the task and passed
+   * to the given listeners. Phases started outside of a task are only recorded by JFR.
+   */
+  static Span startTask(String taskPath, List<Listener> listeners) {
+    TaskContext previous = CURRENT_TASK.get();
+    CURRENT_TASK.set(new TaskContext(taskPath, listeners));
+    return new Span("task", taskPath) {
+      @Override
+      void end() {
+        try {
+          super.end();
+        } finally {
+          CURRENT_TASK.set(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * Runs the given action, e.g., a worker's share of the work of a task, attributing the
+   * phases it starts on the current thread to the task with the given path and passing
+   * them to the given listeners. Returns the result of the action.
+   */
+  static <T> T inTask(String taskPath, List<Listener> listeners, Supplier<T> action) {
+    TaskContext previous = CURRENT_TASK.get();
+    CURRENT_TASK.set(new TaskContext(taskPath, listeners));
+    try {
+      return action.get();
+    } finally {
+      CURRENT_TASK.set(previous);
+    }
+  }
+
+  /**
+   * Returns the given action, e.g., a share of the work of a task that runs on a thread
+   * pool, wrapped to attribute the phases it starts to the task that the current thread
+   * works for, if any, wherever it runs.
+   */
+  static <T> Callable<T> inCurrentTask(Callable<T> action) {
+    TaskContext context = CURRENT_TASK.get();
+    if (context == null) {
+      return action;
+    }
+    return () -> {
+      TaskContext previous = CURRENT_TASK.get();
+      CURRENT_TASK.set(context);
+      try {
+        return action.call();
+      } finally {
+        CURRENT_TASK.set(previous);
+      }
+    };
+  }
+
+  /**
+   * The task a thread works for and the listeners of its build.
+   */
+  private static final class TaskContext {
+    final String task;
+    final List<Listener> listeners;
+
+    TaskContext(String task, List<Listener> listeners) {
+      this.task = task;
+      this.listeners = listeners;
+    }
+  }
+
+  /**
+   * A phase being measured. The values that don't apply to a phase are left unset.
+   */
+  static class Span {
+    private final String name;
+    private final String detail;
+    private final String task;
+    private final List<Listener> listeners;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Object event;
+    private final Map<String, Long> values = new LinkedHashMap<>();
+
+    private Span(String name, String detail) {
+      this.name = name;
+      this.detail = detail;
+      TaskContext context = CURRENT_TASK.get();
+      this.task = context != null ? context.task : null;
+      this.listeners = context != null ? context.listeners : Collections.emptyList();
+      this.event = JFR_AVAILABLE ? Jfr.begin() : null;
+    }
+
+    /** Sets the number of files the phase looked at. */
+    Span files(long count) {
+      values.put("files", count);
+      return this;
+    }
+
+    /** Sets the number of files the phase wrote or deleted. */
+    Span changedFiles(long count) {
+      values.put("changedFiles", count);
+      return this;
+    }
+
+    /** Sets the number of bytes the phase wrote. */
+    Span bytes(long count) {
+      values.put("bytes", count);
+      return this;
+    }
+
+    /** Sets the length of the command line the phase ran. */
+    Span commandLength(long length) {
+      values.put("commandLength", length);
+      return this;
+    }
+
+    /** Sets the index of the batch of protoc invocations of the phase. */
+    Span batch(long index) {
+      values.put("batch", index);
+      return this;
+    }
+
+    /** Sets the time the phase waited for a slot to run its process, in milliseconds. */
+    Span queueWaitMillis(long millis) {
+      values.put("queueWaitMillis", millis);
+      return this;
+    }
+
+    /** Sets the peak resident set size of the process the phase ran, in kilobytes. */
+    Span peakRssKb(long kilobytes) {
+      values.put("peakRssKb", kilobytes);
+      return this;
+    }
+
+    /** Sets the exit status of the process the phase ran. */
+    Span exitStatus(long status) {
+      values.put("exitStatus", status);
+      return this;
+    }
+
+    void end() {
+      long durationNanos = System.nanoTime() - startNanos;
+      if (event != null) {
+        Jfr.commit(event, name, detail, task, values);
+      }
+      if (!listeners.isEmpty()) {
+        Phase phase = new Phase(name, detail, task, startMillis, startNanos, durationNanos,
+            Thread.currentThread().getName(), Collections.unmodifiableMap(values));
+        for (Listener listener : listeners) {
+          listener.phaseEnded(phase);
+        }
+      }
+    }
+  }
+
+  /**
+   * A phase that ended.
+   */
+  static final class Phase {
+    final String name;
+    final String detail;
+    /** The path of the task the phase worked for, or null. */
+    final String task;
+    /** When the phase started, in milliseconds since the epoch. */
+    final long startMillis;
+    /** When the phase started, as given by {@link System#nanoTime()}. */
+    final long startNanos;
+    final long durationNanos;
+    final String thread;
+    /** The values set on the phase, see {@link Span}. */
+    final Map<String, Long> values;
+
+    Phase(String name, String detail, String task, long startMillis, long startNanos, long durationNanos,
+        String thread, Map<String, Long> values) {
+      this.name = name;
+      this.detail = detail;
+      this.task = task;
+      this.startMillis = startMillis;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.thread = thread;
+      this.values = values;
+    }
+  }
+
+  /**
+   * Only loaded when the JVM has the jdk.jfr module.
+   */
+  private static final class Jfr {
+    static Object begin() {
+      PhaseEvent event = new PhaseEvent();
+      event.begin();
+      return event;
+    }
+
+    static void commit(Object begun, String name, String detail, String task, Map<String, Long> values) {
+      PhaseEvent event = (PhaseEvent) begun;
+      event.end();
+      if (!event.shouldCommit()) {
+        return;
+      }
+      event.phase = name;
+      event.detail = detail;
+      event.task = task;
+      event.files = values.getOrDefault("files", -1L);
+      event.changedFiles = values.getOrDefault("changedFiles", -1L);
+      event.bytes = values.getOrDefault("bytes", -1L);
+      event.commandLength = values.getOrDefault("commandLength", -1L);
+      event.exitStatus = values.getOrDefault("exitStatus", -1L).intValue();
+      event.batch = values.getOrDefault("batch", -1L).intValue();
+      event.queueWait = values.getOrDefault("queueWaitMillis", -1L);
+      event.peakRss = values.containsKey("peakRssKb") ? values.get("peakRssKb") * 1024 : -1L;
+      event.commit();
+    }
+  }
+
+  @Name("com.google.protobuf.gradle.Phase")
+  @Label("Protobuf Plugin Phase")
+  @Category("Protobuf Gradle Plugin")
+  @Description("A phase of the work of the protobuf Gradle plugin; -1 stands for values that don't apply")
+  @StackTrace(false)
+  static final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Detail")
+    String detail;
+
+    @Label("Task")
+    String task;
+
+    @Label("Files")
+    long files;
+
+    @Label("Changed Files")
+    long changedFiles;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytes;
+
+    @Label("Command Length")
+    long commandLength;
+
+    @Label("Exit Status")
+    int exitStatus;
+
+    @Label("Batch")
+    int batch;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.MILLISECONDS)
+    long queueWait;
+
+    @Label("Peak RSS")
+    @DataAmount
+    long peakRss;
+  }
+}
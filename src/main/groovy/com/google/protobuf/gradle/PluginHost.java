@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.Permission;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * A long-lived JVM that runs the main class of .jar protoc plugins in-process, so that
+ * protoc invocations don't each pay for starting a JVM. It is started by
+ * {@link PluginHostService}, and the plugin trampoline scripts forward requests to it.
+ *
+ * <p>The host listens on a loopback port and prints "&lt;port&gt; &lt;token&gt;" on its
+ * first line of output, or "UNSUPPORTED &lt;reason&gt;" before exiting if it can't keep
+ * plugins from ending it. The build then tells it which plugin jars it may run by writing
+ * "ALLOW &lt;jar&gt;" lines to its standard input, each answered by an "ALLOWED" line. Each
+ * connection sends five lines: the token, the plugin jar, and the files holding the
+ * CodeGeneratorRequest, and receiving the CodeGeneratorResponse and the error output. The
+ * host answers "OK", "FAIL &lt;exit code&gt;", or "DENIED" for a jar it was not told about.
+ * It exits when its standard input is closed, i.e., when the build that started it is done.
+ *
+ * <p>The classes of a plugin jar are loaded by class loaders of their own, which are kept
+ * for the next invocations of the jar, so that these run on loaded and compiled classes.
+ * A class loader runs one invocation at a time: concurrent invocations of a jar get one
+ * each, and share no static state. A class loader is dropped once it has been idle for
+ * {@link #IDLE_EVICTION_MILLIS}, when the jar changes, or when an invocation on it fails.
+ * System.in, System.out and System.err are those of the invocation whose code uses them:
+ * the thread that runs the main method, or any thread running the classes of its class
+ * loader. They are closed for such threads while the class loader is idle. System.exit()
+ * ends the invocation instead of the host.
+ *
+ * <p>Only depends on the JDK, since it runs outside of Gradle. Not for external use.
+ */
+final class PluginHost {
+  // The invocation that the current thread runs the main method of
+  private static final ThreadLocal<Invocation> MAIN_THREAD_INVOCATION = new ThreadLocal<>();
+  private static final StackWalker STACK_WALKER =
+      StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+  static final long IDLE_EVICTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final String token;
+  private final Set<String> allowedJars = ConcurrentHashMap.newKeySet();
+  private final LoaderPool loaders = new LoaderPool();
+
+  private PluginHost(String token) {
+    this.token = token;
+  }
+
+  public static void main(String[] args) throws IOException {
+    PrintStream parentOut = System.out;
+    try {
+      installExitTrap();
+    } catch (UnsupportedOperationException | SecurityException e) {
+      // E.g., Java 24+, where nothing stops a plugin from calling System.exit()
+      parentOut.println("UNSUPPORTED " + e);
+      parentOut.flush();
+      return;
+    }
+
+    byte[] tokenBytes = new byte[16];
+    new SecureRandom().nextBytes(tokenBytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : tokenBytes) {
+      token.append(String.format("%02x", b));
+    }
+    PluginHost host = new PluginHost(token.toString());
+
+    InputStream parentIn = System.in;
+    System.setIn(new InvocationInputStream());
+    System.setOut(new PrintStream(new InvocationOutputStream(parentOut, false), true));
+    System.setErr(new PrintStream(new InvocationOutputStream(System.err, true), true));
+
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    parentOut.println(serverSocket.getLocalPort() + " " + host.token);
+    parentOut.flush();
+
+    Thread watchdog = new Thread(() -> {
+      try {
+        BufferedReader commands = new BufferedReader(new InputStreamReader(parentIn, StandardCharsets.UTF_8));
+        String command;
+        while ((command = commands.readLine()) != null) {
+          if (command.startsWith("ALLOW ")) {
+            host.allowedJars.add(command.substring("ALLOW ".length()));
+            parentOut.println("ALLOWED");
+            parentOut.flush();
+          }
+        }
+      } catch (IOException ignored) {
+        // Treated as the parent going away
+      }
+      System.exit(0);
+    }, "plugin-host-watchdog");
+    watchdog.setDaemon(true);
+    watchdog.start();
+
+    Thread evictor = new Thread(() -> {
+      while (true) {
+        try {
+          Thread.sleep(IDLE_EVICTION_MILLIS / 4);
+        } catch (InterruptedException e) {
+          return;
+        }
+        host.loaders.evictIdle(TimeUnit.MILLISECONDS.toNanos(IDLE_EVICTION_MILLIS));
+      }
+    }, "plugin-host-evictor");
+    evictor.setDaemon(true);
+    evictor.start();
+
+    ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "plugin-host-connection");
+      thread.setDaemon(true);
+      return thread;
+    });
+    while (true) {
+      Socket socket = serverSocket.accept();
+      connections.execute(() -> host.serve(socket));
+    }
+  }
+
+  @SuppressWarnings({"deprecation", "removal"})
+  private static void installExitTrap() {
+    // Java 12+ only allow it if started with -Djava.security.manager=allow, see PluginHostService
+    System.setSecurityManager(new ExitTrap());
+  }
+
+  /**
+   * Returns the invocation that the calling code belongs to, or null if it is the host's.
+   */
+  private static Invocation currentInvocation() {
+    Invocation invocation = MAIN_THREAD_INVOCATION.get();
+    if (invocation != null) {
+      return invocation;
+    }
+    // A thread that a plugin started, or that runs its code for it, e.g., in a pool
+    return STACK_WALKER.walk(frames -> frames
+        .map(frame -> frame.getDeclaringClass().getClassLoader())
+        .filter(loader -> loader instanceof InvocationClassLoader)
+        .findFirst()
+        .map(loader -> ((InvocationClassLoader) loader).invocation)
+        .orElse(null));
+  }
+
+  private void serve(Socket socket) {
+    try (Socket s = socket;
+         BufferedReader reader = new BufferedReader(
+             new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+         BufferedWriter writer = new BufferedWriter(
+             new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+      if (!token.equals(reader.readLine())) {
+        return;
+      }
+      String jar = reader.readLine();
+      String requestFile = reader.readLine();
+      String responseFile = reader.readLine();
+      String errorFile = reader.readLine();
+      if (jar == null || requestFile == null || responseFile == null || errorFile == null) {
+        return;
+      }
+      if (!allowedJars.contains(jar)) {
+        // Only runs the jars of the build, the trampoline runs others in a new JVM
+        writer.write("DENIED");
+        writer.newLine();
+        writer.flush();
+        return;
+      }
+      int exitCode = invoke(new File(jar), new File(requestFile), new File(responseFile), new File(errorFile));
+      writer.write(exitCode == 0 ? "OK" : "FAIL " + exitCode);
+      writer.newLine();
+      writer.flush();
+    } catch (IOException ignored) {
+      // The trampoline did not get an answer and runs the plugin in a new JVM instead
+    }
+  }
+
+  /**
+   * Runs the main class of {@code jar} with the given files as its standard streams, and
+   * returns its exit code.
+   */
+  private int invoke(File jar, File requestFile, File responseFile, File errorFile) throws IOException {
+    try (InputStream in = new FileInputStream(requestFile);
+         OutputStream out = new FileOutputStream(responseFile);
+         PrintStream err = new PrintStream(new FileOutputStream(errorFile), true, "UTF-8")) {
+      Invocation invocation = new Invocation(in, out, err);
+      InvocationClassLoader classLoader = loaders.take(jar);
+      classLoader.invocation = invocation;
+      Thread thread = Thread.currentThread();
+      ClassLoader contextClassLoader = thread.getContextClassLoader();
+      thread.setContextClassLoader(classLoader);
+      MAIN_THREAD_INVOCATION.set(invocation);
+      int exitCode;
+      try {
+        classLoader.mainMethod(jar).invoke(null, (Object) new String[0]);
+        exitCode = 0;
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ExitTrap.Exit) {
+          exitCode = ((ExitTrap.Exit) cause).status;
+        } else {
+          cause.printStackTrace(err);
+          exitCode = 1;
+        }
+      } catch (IOException | ReflectiveOperationException | RuntimeException | LinkageError e) {
+        err.println("protobuf plugin host: cannot run " + jar + ": " + e);
+        exitCode = 1;
+      } finally {
+        System.out.flush();
+        System.err.flush();
+        invocation.ended = true;
+        classLoader.invocation = null;
+        MAIN_THREAD_INVOCATION.remove();
+        thread.setContextClassLoader(contextClassLoader);
+      }
+      if (exitCode == 0) {
+        loaders.release(classLoader);
+      } else {
+        // Its static state may be broken
+        classLoader.close();
+      }
+      return exitCode;
+    }
+  }
+
+  /**
+   * The class loaders of the plugin jars that are not running an invocation, most recently
+   * used first.
+   */
+  private static final class LoaderPool {
+    private final Map<String, Deque<InvocationClassLoader>> idle = new HashMap<>();
+
+    /** Returns an idle class loader of the current content of {@code jar}, or a new one. */
+    InvocationClassLoader take(File jar) throws IOException {
+      // A jar that changes gets new class loaders, the old ones are evicted once idle
+      String key = jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified();
+      synchronized (this) {
+        Deque<InvocationClassLoader> loaders = idle.get(key);
+        InvocationClassLoader loader = loaders == null ? null : loaders.pollFirst();
+        if (loader != null) {
+          return loader;
+        }
+      }
+      return new InvocationClassLoader(jar.toURI().toURL(), key);
+    }
+
+    synchronized void release(InvocationClassLoader loader) {
+      loader.idleSinceNanos = System.nanoTime();
+      idle.computeIfAbsent(loader.key, key -> new ArrayDeque<>()).addFirst(loader);
+    }
+
+    /** Closes the class loaders that have been idle for longer than the given time. */
+    void evictIdle(long maxIdleNanos) {
+      List<InvocationClassLoader> evicted = new ArrayList<>();
+      long now = System.nanoTime();
+      synchronized (this) {
+        for (Iterator<Deque<InvocationClassLoader>> it = idle.values().iterator(); it.hasNext(); ) {
+          Deque<InvocationClassLoader> loaders = it.next();
+          // The least recently used ones are last
+          while (!loaders.isEmpty() && now - loaders.peekLast().idleSinceNanos > maxIdleNanos) {
+            evicted.add(loaders.pollLast());
+          }
+          if (loaders.isEmpty()) {
+            it.remove();
+          }
+        }
+      }
+      for (InvocationClassLoader loader : evicted) {
+        try {
+          loader.close();
+        } catch (IOException ignored) {
+          // Only releases the jar file
+        }
+      }
+    }
+  }
+
+  /** The standard streams of one invocation of a plugin. */
+  private static final class Invocation {
+    final InputStream in;
+    final OutputStream out;
+    final PrintStream err;
+    // Set once the main method returned; threads it left behind then have no streams
+    volatile boolean ended;
+
+    Invocation(InputStream in, OutputStream out, PrintStream err) {
+      this.in = in;
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  /** Loads the classes of a plugin jar, isolated from the host and from other class loaders. */
+  private static final class InvocationClassLoader extends URLClassLoader {
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
+    final String key;
+    // The invocation running on this class loader, or null while it is idle
+    volatile Invocation invocation;
+    long idleSinceNanos;
+    private Method mainMethod;
+
+    InvocationClassLoader(URL jar, String key) {
+      super(new URL[] {jar}, ClassLoader.getPlatformClassLoader());
+      this.key = key;
+    }
+
+    Method mainMethod(File jar) throws IOException, ReflectiveOperationException {
+      if (mainMethod == null) {
+        String mainClass;
+        try (JarFile jarFile = new JarFile(jar)) {
+          mainClass = jarFile.getManifest() == null ? null
+              : jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        }
+        if (mainClass == null) {
+          throw new IOException("no Main-Class in the manifest");
+        }
+        mainMethod = Class.forName(mainClass, true, this).getMethod("main", String[].class);
+      }
+      return mainMethod;
+    }
+  }
+
+  /** System.in while the host runs: the request of the current invocation. */
+  private static final class InvocationInputStream extends InputStream {
+    private static InputStream source() {
+      Invocation invocation = currentInvocation();
+      return invocation == null || invocation.ended ? InputStream.nullInputStream() : invocation.in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return source().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return source().read(b, off, len);
+    }
+  }
+
+  /** System.out or System.err while the host runs: those of the current invocation, if any. */
+  private static final class InvocationOutputStream extends OutputStream {
+    private final OutputStream hostStream;
+    private final boolean isErr;
+
+    InvocationOutputStream(OutputStream hostStream, boolean isErr) {
+      this.hostStream = hostStream;
+      this.isErr = isErr;
+    }
+
+    private OutputStream target() {
+      Invocation invocation = currentInvocation();
+      if (invocation == null) {
+        // The host's own output: only the error output has somewhere to go
+        return isErr ? hostStream : OutputStream.nullOutputStream();
+      }
+      if (invocation.ended) {
+        return OutputStream.nullOutputStream();
+      }
+      return isErr ? invocation.err : invocation.out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+
+  /** Turns System.exit() in a plugin into an {@link Exit} that ends the invocation. */
+  @SuppressWarnings({"deprecation", "removal"})
+  private static final class ExitTrap extends SecurityManager {
+    @Override
+    public void checkPermission(Permission perm) {
+      // Everything is allowed
+    }
+
+    @Override
+    public void checkPermission(Permission perm, Object context) {
+      // Everything is allowed
+    }
+
+    @Override
+    public void checkExit(int status) {
+      if (currentInvocation() != null) {
+        throw new Exit(status);
+      }
+    }
+
+    static final class Exit extends SecurityException {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      Exit(int status) {
+        super("System.exit(" + status + ") called by a protoc plugin");
+        this.status = status;
+      }
+    }
+  }
+}
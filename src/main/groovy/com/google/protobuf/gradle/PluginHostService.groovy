@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * A build service that runs a {@link PluginHost} JVM per java executable for the
+ * duration of the build, for the tasks that use it to run their .jar plugins.
+ *
+ * <p>The host needs Java 11+ and a JVM that still lets it trap System.exit(), i.e., up to
+ * Java 23. On other JVMs the tasks run their plugins in a new JVM.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class PluginHostService implements BuildService<Parameters>, AutoCloseable {
+  static final String NAME = "protobufPluginHost"
+
+  private static final Logger LOGGER = Logging.getLogger(PluginHostService)
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10
+  private static final int MIN_JAVA_VERSION = 11
+  // From Java 12 on, a security manager can only be installed if the JVM is told so
+  private static final int SECURITY_MANAGER_OPT_IN_JAVA_VERSION = 12
+
+  // Empty for the java executables that can't run the host
+  private final Map<String, Optional<Endpoint>> hosts = new ConcurrentHashMap<>()
+
+  /**
+   * The settings of the service, see {@link PluginHostService}.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the hosts write their own error output, which is not a plugin's. */
+    RegularFileProperty getLogFile()
+  }
+
+  /**
+   * Where a running host listens.
+   */
+  static class Endpoint {
+    final Process process
+    final int port
+    final String token
+    // The rest of the output of the host, which answers the jars it is allowed to run
+    private final BufferedReader output
+    private final Set<String> allowedJars = ConcurrentHashMap.newKeySet()
+
+    Endpoint(Process process, BufferedReader output, int port, String token) {
+      this.process = process
+      this.output = output
+      this.port = port
+      this.token = token
+    }
+
+    /**
+     * Lets the host run the given plugin jar. The host refuses the jars the build did not
+     * allow, so that only the build's plugins run in it, whoever connects to it.
+     */
+    void allow(String jarAbsolutePath) {
+      if (allowedJars.contains(jarAbsolutePath)) {
+        return
+      }
+      synchronized (this) {
+        process.outputStream.write("ALLOW ${jarAbsolutePath}\n".getBytes("UTF-8"))
+        process.outputStream.flush()
+        String answer = output.readLine()
+        if (answer != "ALLOWED") {
+          throw new IOException("the protobuf plugin host answered '${answer}' to allowing ${jarAbsolutePath}")
+        }
+        allowedJars.add(jarAbsolutePath)
+      }
+    }
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<PluginHostService> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, PluginHostService) {
+      BuildServiceSpec<Parameters> spec ->
+      File projectCacheDir = project.gradle.startParameter.projectCacheDir ?: new File(project.rootDir, ".gradle")
+      spec.parameters.logFile.set(new File(projectCacheDir, "protobuf/plugin-host.log"))
+    }
+  }
+
+  /**
+   * Returns the host running on the given java executable, starting it if needed, or
+   * null if the host can't run on it.
+   */
+  Endpoint hostFor(String javaExecutable) {
+    Optional<Endpoint> endpoint = hosts.computeIfAbsent(javaExecutable) { String java -> start(java) }
+    if (endpoint.present && !endpoint.get().process.alive) {
+      LOGGER.info("protobuf plugin host on ${javaExecutable} exited, starting a new one")
+      hosts.remove(javaExecutable, endpoint)
+      endpoint = hosts.computeIfAbsent(javaExecutable) { String java -> start(java) }
+    }
+    return endpoint.orElse(null)
+  }
+
+  @Override
+  void close() {
+    hosts.values().each { Optional<Endpoint> endpoint ->
+      if (endpoint.present) {
+        // Closing its standard input tells the host to exit
+        Process process = endpoint.get().process
+        process.outputStream.close()
+        if (!process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          process.destroyForcibly()
+        }
+      }
+    }
+    hosts.clear()
+  }
+
+  private Optional<Endpoint> start(String javaExecutable) {
+    int javaVersion = Utils.javaFeatureVersion(javaExecutable)
+    if (javaVersion >= 0 && javaVersion < MIN_JAVA_VERSION) {
+      LOGGER.info("protobuf plugin host needs Java ${MIN_JAVA_VERSION}+, ${javaExecutable} is Java ${javaVersion}")
+      return Optional.empty()
+    }
+    String classpath = new File(PluginHost.protectionDomain.codeSource.location.toURI()).path
+    List<String> cmd = [javaExecutable]
+    if (javaVersion >= SECURITY_MANAGER_OPT_IN_JAVA_VERSION) {
+      cmd.add("-Djava.security.manager=allow")
+    }
+    cmd.addAll(["-cp", classpath, PluginHost.name])
+    File logFile = parameters.logFile.get().asFile
+    GenerateProtoTask.mkdirsForFile(logFile)
+    // JVMs warn about the host's use of a security manager, keep that out of the build output
+    Process process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.appendTo(logFile)).start()
+    BufferedReader output = new BufferedReader(new InputStreamReader(process.inputStream, "UTF-8"))
+    String line = output.readLine()
+    if (line != null && line.startsWith("UNSUPPORTED ")) {
+      LOGGER.info("protobuf plugin host can't run on ${javaExecutable}: ${line.substring('UNSUPPORTED '.length())}")
+      process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+      return Optional.empty()
+    }
+    List<String> parts = line == null ? [] : line.tokenize(' ')
+    if (parts.size() != 2 || !parts[0].isInteger()) {
+      process.destroyForcibly()
+      throw new GradleException("Unable to start the protobuf plugin host with ${cmd}: it printed '${line}', " +
+          "see ${logFile}")
+    }
+    LOGGER.info("Started protobuf plugin host on ${javaExecutable}, port ${parts[0]}")
+    return Optional.of(new Endpoint(process, output, parts[0].toInteger(), parts[1]))
+  }
+}
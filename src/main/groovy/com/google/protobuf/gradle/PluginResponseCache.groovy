@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A build service for the shims that cache the responses of protoc plugins. A shim
+ * stands in for a plugin: it hashes the CodeGeneratorRequest it gets from protoc together
+ * with the content of the plugin, replays the response stored under that hash if there
+ * is one, and otherwise runs the plugin and stores its response. Responses are files in
+ * a cache directory under the Gradle user home. When a build that used the cache
+ * finishes, the least recently used ones are deleted if the cache grew over its maximum
+ * size, set with the {@code protobuf.pluginResponseCacheMaxSizeMb} Gradle property.
+ *
+ * <p>Shims need sha256sum or shasum, and run the plugin directly without them.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class PluginResponseCache implements BuildService<Parameters>, AutoCloseable {
+  static final String NAME = "protobufPluginResponseCache"
+  static final String CACHE_NAME = "plugin-responses"
+  static final long DEFAULT_MAX_SIZE_MB = 512
+
+  // Responses used that recently may be being replayed, and are never deleted
+  private static final long MIN_EVICTION_AGE_MILLIS = TimeUnit.HOURS.toMillis(1)
+
+  // Builds that did not use the cache leave it alone
+  private final AtomicBoolean used = new AtomicBoolean()
+
+  /**
+   * The settings of the service, see {@link PluginResponseCache}.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the responses are, one file per request. */
+    DirectoryProperty getCacheDir()
+
+    Property<Long> getMaxSizeMb()
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<PluginResponseCache> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, PluginResponseCache) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.cacheDir.set(Utils.getSharedCacheDir(project.gradle.gradleUserHomeDir, CACHE_NAME))
+      spec.parameters.maxSizeMb.set(project.providers.gradleProperty("protobuf.pluginResponseCacheMaxSizeMb")
+          .map { String value -> Long.valueOf(value.trim()) }
+          .orElse(DEFAULT_MAX_SIZE_MB))
+    }
+  }
+
+  /**
+   * Returns the directory of the responses, which is trimmed when the build finishes.
+   */
+  File use() {
+    used.set(true)
+    return parameters.cacheDir.get().asFile
+  }
+
+  /**
+   * Trims the cache once per build, rather than every task listing it.
+   */
+  @Override
+  void close() {
+    if (used.get()) {
+      trim(parameters.cacheDir.get().asFile, parameters.maxSizeMb.get() * 1024 * 1024)
+    }
+  }
+
+  /**
+   * Returns what identifies a plugin in the cache keys: the SHA-256 of its executable,
+   * or of its jar.
+   */
+  static String pluginKey(File plugin) {
+    return Utils.sha256(plugin)
+  }
+
+  /**
+   * Returns a shim that runs {@code plugin}, identified by {@code pluginKey}, through the
+   * responses cached in {@code cacheDir}.
+   */
+  static String shim(File cacheDir, String plugin, String pluginKey) {
+    return """#!/bin/sh
+cache='${GenerateProtoTask.escapePathUnix(cacheDir.path)}'
+plugin='${GenerateProtoTask.escapePathUnix(plugin)}'
+if command -v sha256sum >/dev/null 2>&1; then
+  digest() { sha256sum | cut -d ' ' -f 1; }
+elif command -v shasum >/dev/null 2>&1; then
+  digest() { shasum -a 256 | cut -d ' ' -f 1; }
+else
+  exec "\$plugin" "\$@"
+fi
+request=\$(mktemp "\${TMPDIR:-/tmp}/protoc-gen-request.XXXXXX") || exec "\$plugin" "\$@"
+trap 'rm -f "\$request" "\$request.response"' EXIT
+cat > "\$request"
+entry="\$cache/\$( { echo '${pluginKey}'; cat "\$request"; } | digest)"
+if [ -f "\$entry" ]; then
+  touch "\$entry" 2>/dev/null
+  cat "\$entry"
+  exit \$?
+fi
+"\$plugin" "\$@" < "\$request" > "\$request.response" || exit \$?
+mkdir -p "\$cache" 2>/dev/null && cp "\$request.response" "\$entry.\$\$.tmp" 2>/dev/null &&
+  mv -f "\$entry.\$\$.tmp" "\$entry" 2>/dev/null
+cat "\$request.response"
+""".toString()
+  }
+
+  /**
+   * Deletes the least recently used responses of {@code cacheDir} until it holds at most
+   * {@code maxSizeBytes}, sparing the responses used in the last hour.
+   */
+  static void trim(File cacheDir, long maxSizeBytes) {
+    List<File> entries = (cacheDir.listFiles() ?: new File[0]).toList()
+    long size = entries.sum(0L) { File entry -> entry.length() } as long
+    if (size <= maxSizeBytes) {
+      return
+    }
+    long now = System.currentTimeMillis()
+    for (File entry : entries.sort { File file -> file.lastModified() }) {
+      if (size <= maxSizeBytes || now - entry.lastModified() <= MIN_EVICTION_AGE_MILLIS) {
+        break
+      }
+      long length = entry.length()
+      if (entry.delete()) {
+        size -= length
+      }
+    }
+  }
+}
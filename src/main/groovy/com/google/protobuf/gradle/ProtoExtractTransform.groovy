@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.artifacts.transform.CacheableTransform
+import org.gradle.api.artifacts.transform.InputArtifact
+import org.gradle.api.artifacts.transform.TransformAction
+import org.gradle.api.artifacts.transform.TransformOutputs
+import org.gradle.api.artifacts.transform.TransformParameters
+import org.gradle.api.artifacts.transform.TransformSpec
+import org.gradle.api.attributes.Attribute
+import org.gradle.api.file.FileSystemLocation
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+
+/**
+ * An artifact transform that turns a .jar, .zip or .aar archive into a directory of
+ * just its proto files. Gradle runs the transform once per archive, in parallel, and
+ * caches its result across projects and builds, so the extract tasks only have to copy
+ * the protos of the directories it produces.
+ *
+ * <p>Not for external use.
+ */
+@CacheableTransform
+@CompileStatic
+abstract class ProtoExtractTransform implements TransformAction<TransformParameters.None> {
+  /**
+   * Set to false on the archives the transform applies to, and requested as true by the
+   * configurations that want extracted protos. Artifacts without the attribute, like
+   * directories and tar archives, are left as they are.
+   */
+  static final Attribute<Boolean> PROTOS_EXTRACTED =
+      Attribute.of("com.google.protobuf.gradle.protos-extracted", Boolean)
+  static final String ENABLED_PROPERTY = "protobuf.extractWithTransform"
+
+  private static final List<String> ARTIFACT_TYPES = ['jar', 'zip', 'aar']
+
+  /**
+   * Returns true if the {@code protobuf.extractWithTransform} Gradle property is set to true.
+   */
+  static boolean isEnabled(Project project) {
+    return project.providers.gradleProperty(ENABLED_PROPERTY)
+        .map { String value -> Boolean.parseBoolean(value.trim()) }
+        .getOrElse(false)
+  }
+
+  /**
+   * Registers the transform and marks the archives it applies to.
+   */
+  static void register(Project project) {
+    project.dependencies.attributesSchema.attribute(PROTOS_EXTRACTED)
+    ARTIFACT_TYPES.each { String type ->
+      project.dependencies.artifactTypes.maybeCreate(type).attributes.attribute(PROTOS_EXTRACTED, false)
+    }
+    project.dependencies.registerTransform(ProtoExtractTransform) { TransformSpec<TransformParameters.None> spec ->
+      spec.from.attribute(PROTOS_EXTRACTED, false)
+      spec.to.attribute(PROTOS_EXTRACTED, true)
+    }
+  }
+
+  @InputArtifact
+  @PathSensitive(PathSensitivity.NAME_ONLY)
+  abstract Provider<FileSystemLocation> getInputArtifact()
+
+  @Override
+  void transform(TransformOutputs outputs) {
+    File archive = inputArtifact.get().asFile
+    if (archive.directory) {
+      outputs.dir(archive)
+      return
+    }
+    File dir = outputs.dir(archive.name + "-protos")
+    dir.mkdirs()
+    ProtoExtractionCache.extractProtos(archive, dir)
+  }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonException
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipInputStream
+
+/**
+ * A build service that extracts the proto files of .jar, .zip and .aar archives once
+ * into a cache under the Gradle user home, shared by all the projects and builds of the
+ * user. Entries are keyed by the SHA-256 of the archive, and each archive is hashed at
+ * most once per build. When the cache grows over its maximum size, the least recently
+ * used entries are deleted.
+ *
+ * <p>An index kept next to the entries records, by archive path, size and modification
+ * time, the proto files that each archive has, read from its central directory, and its
+ * hash. Archives without proto files, most of a classpath, are thus only opened the first
+ * time they are seen, and are never hashed.
+ *
+ * <p>The maximum size is set with the {@code protobuf.extractCacheMaxSizeMb} Gradle
+ * property, by default 1024.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ProtoExtractionCache implements BuildService<Parameters>, AutoCloseable {
+  static final String NAME = "protobufExtractionCache"
+  static final String CACHE_NAME = "extracted-protos"
+  static final String INDEX_FILE = "index.json"
+
+  private static final Logger LOGGER = Logging.getLogger(ProtoExtractionCache)
+  private static final long DEFAULT_MAX_SIZE_MB = 1024
+  // Entries used that recently may be in use by another build, and are never evicted
+  private static final long MIN_EVICTION_AGE_MILLIS = TimeUnit.HOURS.toMillis(1)
+  private static final String PROTO_SUFFIX = ".proto"
+  // Archives extracted at the same time by one task
+  private static final int MAX_PARALLEL_EXTRACTIONS = 8
+  private static final int INDEX_VERSION = 2
+  // Stands for the archives without proto files, which have no entry
+  private static final File NO_PROTOS = new File("")
+
+  // The entry of each archive, by path, size and modification time
+  private final Map<String, File> entries = new ConcurrentHashMap<>()
+  private final Object evictionLock = new Object()
+  // The size of the cache, computed on the first new entry of the build
+  private long cacheSize = -1
+  // The index, by archive path, loaded on first use and saved when the build finishes
+  private final Map<String, Listing> index = new ConcurrentHashMap<>()
+  private final Object indexLock = new Object()
+  private boolean indexLoaded = false
+  private volatile boolean indexChanged = false
+
+  /**
+   * The settings of the service, see {@link ProtoExtractionCache}.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the entries are, one directory per archive hash. */
+    DirectoryProperty getCacheDir()
+
+    Property<Long> getMaxSizeMb()
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ProtoExtractionCache> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ProtoExtractionCache) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.cacheDir.set(Utils.getSharedCacheDir(project.gradle.gradleUserHomeDir, CACHE_NAME))
+      spec.parameters.maxSizeMb.set(project.providers.gradleProperty("protobuf.extractCacheMaxSizeMb")
+          .map { String value -> Long.valueOf(value.trim()) }
+          .orElse(DEFAULT_MAX_SIZE_MB))
+    }
+  }
+
+  /**
+   * Returns true for the archives that the cache can extract.
+   */
+  static boolean supports(File archive) {
+    String path = archive.path
+    return path.endsWith('.jar') || path.endsWith('.zip') || path.endsWith('.aar')
+  }
+
+  /**
+   * Extracts the proto files of {@code zip}, or only those of the jars it contains if it
+   * is an .aar, into {@code dir}. Returns the number of bytes extracted.
+   */
+  static long extractProtos(File zip, File dir) throws IOException {
+    long size = 0
+    boolean isAar = zip.name.endsWith('.aar')
+    new ZipFile(zip).withCloseable { ZipFile zipFile ->
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        if (entry.directory) {
+          continue
+        }
+        if (isAar && entry.name.endsWith('.jar')) {
+          size += extractNestedProtos(zipFile.getInputStream(entry), dir)
+        } else if (!isAar && entry.name.endsWith(PROTO_SUFFIX)) {
+          size += zipFile.getInputStream(entry).withCloseable { InputStream input ->
+            return copyEntry(entry.name, input, dir)
+          }
+        }
+      }
+    }
+    return size
+  }
+
+  /**
+   * Returns the paths of the proto files of {@code zip}, or only of those of the jars it
+   * contains if it is an .aar, sorted. Only the central directory of {@code zip} is read,
+   * and the entry headers of nested jars.
+   */
+  static SortedSet<String> listProtos(File zip) throws IOException {
+    SortedSet<String> protos = new TreeSet<String>()
+    boolean isAar = zip.name.endsWith('.aar')
+    new ZipFile(zip).withCloseable { ZipFile zipFile ->
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        if (entry.directory) {
+          continue
+        }
+        if (isAar && entry.name.endsWith('.jar')) {
+          listNestedProtos(zipFile.getInputStream(entry), protos)
+        } else if (!isAar && entry.name.endsWith(PROTO_SUFFIX)) {
+          protos.add(entry.name)
+        }
+      }
+    }
+    return protos
+  }
+
+  private static void listNestedProtos(InputStream jar, Set<String> protos) throws IOException {
+    new ZipInputStream(jar).withCloseable { ZipInputStream input ->
+      ZipEntry entry
+      while ((entry = input.nextEntry) != null) {
+        if (!entry.directory && entry.name.endsWith(PROTO_SUFFIX)) {
+          protos.add(entry.name)
+        }
+      }
+    }
+  }
+
+  private static Map<String, Listing> readIndex(File file) {
+    Map<String, Listing> listings = [:]
+    if (!file.isFile()) {
+      return listings
+    }
+    Map<String, Object> json
+    try {
+      json = new JsonSlurper().parse(file, "UTF-8") as Map<String, Object>
+    } catch (JsonException | IOException e) {
+      LOGGER.info("Ignoring the unreadable proto extraction index ${file}", e)
+      return listings
+    }
+    if (json.get("version") != INDEX_VERSION) {
+      return listings
+    }
+    (json.get("archives") as Map<String, Map<String, Object>>).each { String path, Map<String, Object> value ->
+      listings.put(path, Listing.fromJson(value))
+    }
+    return listings
+  }
+
+  private static long extractNestedProtos(InputStream jar, File dir) throws IOException {
+    long size = 0
+    new ZipInputStream(jar).withCloseable { ZipInputStream input ->
+      ZipEntry entry
+      while ((entry = input.nextEntry) != null) {
+        if (!entry.directory && entry.name.endsWith(PROTO_SUFFIX)) {
+          // The stream is left open, it is the remainder of the jar
+          size += copyEntry(entry.name, input, dir)
+        }
+      }
+    }
+    return size
+  }
+
+  private static long copyEntry(String name, InputStream input, File dir) throws IOException {
+    File target = new File(dir, name)
+    if (!target.canonicalPath.startsWith(dir.canonicalPath + File.separator)) {
+      throw new IOException("Archive entry '${name}' is outside of the archive")
+    }
+    GenerateProtoTask.mkdirsForFile(target)
+    return Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  private static File await(Future<File> future) {
+    try {
+      return future.get()
+    } catch (ExecutionException e) {
+      if (e.cause instanceof RuntimeException) {
+        throw (RuntimeException) e.cause
+      }
+      throw new GradleException("Unable to extract proto files", e.cause)
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt()
+      throw new GradleException("Interrupted while extracting proto files", e)
+    }
+  }
+
+  private static long sizeOf(File dir) {
+    long size = 0
+    dir.eachFileRecurse { File file ->
+      size += file.length()
+    }
+    return size
+  }
+
+  /**
+   * Returns the directory holding the proto files of {@code archive}, extracting them
+   * first if the cache does not have them yet, or null if it has none.
+   */
+  File protosOf(File archive) {
+    String key = "${archive.absolutePath}:${archive.length()}:${archive.lastModified()}"
+    File entry = entries.computeIfAbsent(key) { String ignored ->
+      return entryFor(archive)
+    }
+    return entry == NO_PROTOS ? null : entry
+  }
+
+  /**
+   * Returns the directories holding the proto files of {@code archives}, by archive and in
+   * the same order, null for the archives without proto files. The archives that the
+   * cache does not have yet are extracted in parallel, on a few threads.
+   */
+  Map<File, File> protosOf(Collection<File> archives) {
+    Map<File, File> dirs = [:]
+    if (archives.size() <= 1) {
+      archives.each { File archive -> dirs.put(archive, protosOf(archive)) }
+      return dirs
+    }
+    int threads = Math.min(archives.size(),
+        Math.min(Runtime.runtime.availableProcessors(), MAX_PARALLEL_EXTRACTIONS))
+    ExecutorService executor = Executors.newFixedThreadPool(threads)
+    try {
+      Map<File, Future<File>> futures = [:]
+      archives.each { File archive ->
+        // The phases of the extraction belong to the task that needs it
+        Callable<File> extraction = PluginEvents.inCurrentTask({ return protosOf(archive) } as Callable<File>)
+        futures.put(archive, executor.submit(extraction))
+      }
+      futures.each { File archive, Future<File> future -> dirs.put(archive, await(future)) }
+    } finally {
+      executor.shutdownNow()
+    }
+    return dirs
+  }
+
+  /**
+   * Saves the index, if the build changed it.
+   */
+  @Override
+  void close() {
+    if (!indexChanged) {
+      return
+    }
+    File file = new File(parameters.cacheDir.get().asFile, INDEX_FILE)
+    // Keeps what other builds added meanwhile, and forgets the archives that are gone
+    Map<String, Listing> listings = readIndex(file)
+    listings.putAll(index)
+    Map<String, Object> archives = new TreeMap<String, Object>()
+    listings.each { String path, Listing listing ->
+      if (new File(path).isFile()) {
+        archives.put(path, listing.toJson())
+      }
+    }
+    File temp = new File(file.parentFile, "${file.name}.${UUID.randomUUID()}.tmp")
+    try {
+      file.parentFile.mkdirs()
+      temp.setText(JsonOutput.toJson([version: INDEX_VERSION, archives: archives]), "UTF-8")
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    } catch (IOException e) {
+      LOGGER.info("Unable to save the proto extraction index ${file}", e)
+    } finally {
+      temp.delete()
+    }
+  }
+
+  private Listing listingOf(File archive) {
+    synchronized (indexLock) {
+      if (!indexLoaded) {
+        index.putAll(readIndex(new File(parameters.cacheDir.get().asFile, INDEX_FILE)))
+        indexLoaded = true
+      }
+    }
+    Listing listing = index.get(archive.absolutePath)
+    if (listing != null && listing.size == archive.length() && listing.lastModified == archive.lastModified()) {
+      return listing
+    }
+    PluginEvents.Span span = PluginEvents.start("scan archive", archive.path)
+    try {
+      listing = new Listing(archive.length(), archive.lastModified(), null, listProtos(archive))
+      span.files(listing.protos.size())
+    } catch (IOException e) {
+      throw new GradleException("Unable to list the proto files of ${archive}", e)
+    } finally {
+      span.end()
+    }
+    if (!listing.protos.isEmpty()) {
+      listing.sha256 = Utils.sha256(archive)
+    }
+    index.put(archive.absolutePath, listing)
+    indexChanged = true
+    return listing
+  }
+
+  private File entryFor(File archive) {
+    Listing listing = listingOf(archive)
+    if (listing.protos.isEmpty()) {
+      return NO_PROTOS
+    }
+    File cacheDir = parameters.cacheDir.get().asFile
+    File entry = new File(cacheDir, listing.sha256)
+    if (entry.isDirectory()) {
+      // Marks the entry as recently used, once per build
+      entry.setLastModified(System.currentTimeMillis())
+      return entry
+    }
+    // Other builds may extract the same archive at the same time, extract aside and move in place
+    File temp = new File(cacheDir, "${entry.name}.${UUID.randomUUID()}.tmp")
+    long size
+    PluginEvents.Span span = PluginEvents.start("extract archive", archive.path).files(listing.protos.size())
+    try {
+      temp.mkdirs()
+      size = extractProtos(archive, temp)
+      span.bytes(size)
+      Files.move(temp.toPath(), entry.toPath())
+    } catch (IOException e) {
+      // Fine if another build extracted it first
+      if (!entry.isDirectory()) {
+        throw new GradleException("Unable to extract the proto files of ${archive} to ${entry}", e)
+      }
+      return entry
+    } finally {
+      span.end()
+      temp.deleteDir()
+    }
+    LOGGER.info("Extracted the proto files of ${archive} to ${entry}")
+    evictIfNeeded(cacheDir, size)
+    return entry
+  }
+
+  private void evictIfNeeded(File cacheDir, long addedSize) {
+    synchronized (evictionLock) {
+      if (cacheSize < 0) {
+        cacheSize = sizeOf(cacheDir)
+      } else {
+        cacheSize += addedSize
+      }
+      long maxSize = parameters.maxSizeMb.get() * 1024 * 1024
+      if (cacheSize <= maxSize) {
+        return
+      }
+      Set<File> usedByBuild = entries.values() as Set<File>
+      long now = System.currentTimeMillis()
+      List<File> candidates = (cacheDir.listFiles() ?: new File[0]).findAll { File entry ->
+        entry.isDirectory() && !entry.name.endsWith(".tmp") && !usedByBuild.contains(entry) &&
+            now - entry.lastModified() > MIN_EVICTION_AGE_MILLIS
+      }.sort { File entry -> entry.lastModified() }
+      for (File entry : candidates) {
+        if (cacheSize <= maxSize) {
+          break
+        }
+        long size = sizeOf(entry)
+        if (entry.deleteDir()) {
+          cacheSize -= size
+          LOGGER.info("Evicted ${entry} from the proto extraction cache")
+        }
+      }
+    }
+  }
+
+  /**
+   * What the index knows of an archive.
+   */
+  private static class Listing {
+    final long size
+    final long lastModified
+    // Only computed for the archives with proto files
+    String sha256
+    final SortedSet<String> protos
+
+    Listing(long size, long lastModified, String sha256, SortedSet<String> protos) {
+      this.size = size
+      this.lastModified = lastModified
+      this.sha256 = sha256
+      this.protos = protos
+    }
+
+    static Listing fromJson(Map<String, Object> json) {
+      SortedSet<String> protos = new TreeSet<String>(json.get("protos") as List<String>)
+      return new Listing(((Number) json.get("size")).longValue(), ((Number) json.get("lastModified")).longValue(),
+          json.get("sha256") as String, protos)
+    }
+
+    Map<String, Object> toJson() {
+      return [size: size, lastModified: lastModified, sha256: sha256, protos: protos] as Map<String, Object>
+    }
+  }
+}
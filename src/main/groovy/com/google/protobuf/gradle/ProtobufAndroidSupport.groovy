@@ -40,8 +40,8 @@ import groovy.transform.CompileStatic
 import groovy.transform.TypeChecked
 import groovy.transform.TypeCheckingMode
 import org.gradle.api.NamedDomainObjectContainer
+import org.gradle.api.NamedDomainObjectProvider
 import org.gradle.api.Project
-import org.gradle.api.Task
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.artifacts.type.ArtifactTypeDefinition
 import org.gradle.api.attributes.Attribute
@@ -52,12 +52,12 @@ import org.gradle.api.provider.Provider
 class ProtobufAndroidSupport {
 
     @TypeChecked(TypeCheckingMode.SKIP)
-    static void configure(Project project, ProtobufPlugin plugin, Provider<Task> dummyTask) {
+    static void configure(Project project, ProtobufPlugin plugin) {
         project.android.sourceSets.configureEach { sourceSet ->
             ProtoSourceSet protoSourceSet = plugin.protobufExtension.sourceSets.create(sourceSet.name)
             plugin.addSourceSetExtension(sourceSet, protoSourceSet)
-            Configuration protobufConfig = plugin.createProtobufConfiguration(protoSourceSet)
-            plugin.setupExtractProtosTask(protoSourceSet, protobufConfig, dummyTask)
+            NamedDomainObjectProvider<Configuration> protobufConfig = plugin.createProtobufConfiguration(protoSourceSet)
+            plugin.setupExtractProtosTask(protoSourceSet, protobufConfig)
         }
 
         NamedDomainObjectContainer<ProtoSourceSet> variantSourceSets =
@@ -69,9 +69,9 @@ class ProtobufAndroidSupport {
 
         androidComponents.onVariants(androidComponents.selector().all()) { Variant variant ->
             List<String> flavors = variant.productFlavors.collect { pair -> pair.second }
-            addTasksForVariant(project, plugin, variant, variantSourceSets, dummyTask, flavors, variant.buildType)
+            addTasksForVariant(project, plugin, variant, variantSourceSets, flavors, variant.buildType)
             variant.nestedComponents.each { component ->
-                addTasksForVariant(project, plugin, component, variantSourceSets, dummyTask, flavors, variant.buildType)
+                addTasksForVariant(project, plugin, component, variantSourceSets, flavors, variant.buildType)
             }
         }
     }
@@ -86,7 +86,6 @@ class ProtobufAndroidSupport {
             ProtobufPlugin plugin,
             Component variant,
             NamedDomainObjectContainer<ProtoSourceSet> variantSourceSets,
-            Provider<Task> dummyTask,
             List<String> flavors = [],
             String buildType = null
     ) {
@@ -96,7 +95,7 @@ class ProtobufAndroidSupport {
             attributes.attribute(Attribute.of("artifactType", String), ArtifactTypeDefinition.JAR_TYPE)
         }.files
 
-        plugin.setupExtractIncludeProtosTask(variantSourceSet, classpathConfig, dummyTask)
+        plugin.setupExtractIncludeProtosTask(variantSourceSet, classpathConfig)
 
         boolean isTest = variant instanceof TestComponent
         boolean isAndroidTest = variant instanceof GeneratesTestApk
@@ -38,9 +38,12 @@ import org.gradle.api.Action
 import org.gradle.api.NamedDomainObjectContainer
 import org.gradle.api.Project
 import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.model.ObjectFactory
+import org.gradle.api.plugins.PluginContainer
 import org.gradle.api.provider.Property
 import org.gradle.api.provider.Provider
 import org.gradle.api.tasks.TaskCollection
+import org.gradle.api.tasks.TaskContainer
 
 /**
  * Adds the protobuf {} block as a property of the project.
@@ -49,7 +52,6 @@ import org.gradle.api.tasks.TaskCollection
 // gradle require abstract modificator on extensions
 @SuppressWarnings(["AbstractClassWithoutAbstractMethod", "AbstractClassWithPublicConstructor"])
 abstract class ProtobufExtension {
-  private final Project project
   private final GenerateProtoTaskCollection tasks
   private final ToolsLocator tools
   private final ArrayList<Action<GenerateProtoTaskCollection>> taskConfigActions
@@ -58,19 +60,21 @@ abstract class ProtobufExtension {
   @PackageScope
   final Provider<String> defaultJavaExecutablePath
 
+  // The project is only used to create the state of the extension, which keeps no
+  // reference to it
   public ProtobufExtension(final Project project) {
-    this.project = project
-    this.tasks = new GenerateProtoTaskCollection(project)
-    this.tools = new ToolsLocator(project)
+    ObjectFactory objects = project.objects
+    this.tasks = new GenerateProtoTaskCollection(project.tasks, project.plugins)
+    this.tools = new ToolsLocator(objects)
     this.taskConfigActions = []
     this.generatedFilesBaseDirProperty.convention(
         project.layout.buildDirectory.dir("generated/sources/proto"))
-    this.defaultJavaExecutablePath = project.provider {
+    this.defaultJavaExecutablePath = project.providers.provider {
       computeJavaExePath()
     }
     this.javaExecutablePath.convention(defaultJavaExecutablePath)
-    this.sourceSets = project.objects.domainObjectContainer(ProtoSourceSet) { String name ->
-      new DefaultProtoSourceSet(name, project.objects)
+    this.sourceSets = objects.domainObjectContainer(ProtoSourceSet) { String name ->
+      new DefaultProtoSourceSet(name, objects)
     }
   }
 
@@ -165,51 +169,68 @@ abstract class ProtobufExtension {
   }
 
   public class GenerateProtoTaskCollection {
-    private final Project project
-
-    GenerateProtoTaskCollection(final Project project) {
-      this.project = project
+    private final TaskContainer tasks
+    private final PluginContainer plugins
+    // Whether the project is an Android project, checked once it is first needed
+    private Boolean android
+
+    GenerateProtoTaskCollection(final TaskContainer tasks, final PluginContainer plugins) {
+      this.tasks = tasks
+      this.plugins = plugins
     }
 
     public TaskCollection<GenerateProtoTask> all() {
-      return project.tasks.withType(GenerateProtoTask)
+      return tasks.withType(GenerateProtoTask)
     }
 
     public TaskCollection<GenerateProtoTask> ofSourceSet(String sourceSet) {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        !Utils.isAndroidProject(project) && task.sourceSet.name == sourceSet
+        !android && task.sourceSet.name == sourceSet
       }
     }
 
     public TaskCollection<GenerateProtoTask> ofFlavor(String flavor) {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        Utils.isAndroidProject(project) && task.flavors.contains(flavor)
+        android && task.flavors.contains(flavor)
       }
     }
 
     public TaskCollection<GenerateProtoTask> ofBuildType(String buildType) {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        Utils.isAndroidProject(project) && task.buildType == buildType
+        android && task.buildType == buildType
       }
     }
 
     @TypeChecked(TypeCheckingMode.SKIP) // Don't depend on AGP
     public TaskCollection<GenerateProtoTask> ofVariant(String variant) {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        Utils.isAndroidProject(project) && task.variant.name == variant
+        android && task.variant.name == variant
       }
     }
 
     public TaskCollection<GenerateProtoTask> ofNonTest() {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        Utils.isAndroidProject(project) && !task.isTestVariant
+        android && !task.isTestVariant
       }
     }
 
     public TaskCollection<GenerateProtoTask> ofTest() {
+      boolean android = isAndroid()
       return all().matching { GenerateProtoTask task ->
-        Utils.isAndroidProject(project) && task.isTestVariant
+        android && task.isTestVariant
+      }
+    }
+
+    private boolean isAndroid() {
+      if (android == null) {
+        android = Utils.isAndroidProject(plugins)
       }
+      return android
     }
   }
 }
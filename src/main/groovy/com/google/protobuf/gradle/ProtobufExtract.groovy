@@ -29,15 +29,23 @@
  */
 package com.google.protobuf.gradle
 
+import groovy.json.JsonException
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
 import org.gradle.api.DefaultTask
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.DirectoryProperty
-import org.gradle.api.file.DuplicatesStrategy
 import org.gradle.api.file.FileCollection
 import org.gradle.api.file.FileTree
+import org.gradle.api.file.FileVisitDetails
 import org.gradle.api.logging.Logger
 import org.gradle.api.model.ObjectFactory
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.provider.ProviderFactory
+import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.OutputDirectory
@@ -47,7 +55,11 @@ import org.gradle.api.tasks.TaskAction
 import org.gradle.api.tasks.util.PatternFilterable
 import org.gradle.api.tasks.util.PatternSet
 import org.gradle.util.GradleVersion
+import org.gradle.work.FileChange
+import org.gradle.work.Incremental
+import org.gradle.work.InputChanges
 
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 
 /**
@@ -56,7 +68,6 @@ import javax.inject.Inject
 @CompileStatic
 abstract class ProtobufExtract extends DefaultTask {
 
-  private final CopyActionFacade copyActionFacade = CopyActionFacade.Loader.create(project, objectFactory)
   private final ArchiveActionFacade archiveActionFacade = instantiateArchiveActionFacade()
   private final FileCollection filteredProtos = instantiateFilteredProtos()
 
@@ -70,16 +81,64 @@ abstract class ProtobufExtract extends DefaultTask {
   public abstract ConfigurableFileCollection getInputFiles()
 
   /**
-   * A dummy task dependency to delay provider calculation for input proto files to execution time
-   * even with configuration cache enabled.
+   * If true, the proto files of directories and of the extraction cache are hard linked
+   * into destDir instead of copied. Where hard links are not possible, e.g., across
+   * devices, the files of directories are symbolically linked, and those of the
+   * extraction cache, whose entries may be evicted, are copied. Files are still copied
+   * when no link works, and the proto files that Gradle extracts from archives itself are
+   * always copied. Protoc and
+   * Gradle see the links as normal files; do not edit the extracted files in place.
+   *
+   * Default: false
+   */
+  @Input
+  final Property<Boolean> useLinks = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * The shared cache of the proto files extracted from archives. Set by the plugin; if not
+   * set, archives are read by Gradle in every task.
    */
   @Internal
-  abstract ConfigurableFileCollection getDummyTaskDependency()
+  abstract Property<ProtoExtractionCache> getExtractionCache()
+
+  /**
+   * If true, this task and the other extract tasks of the build with this option that
+   * have the same input files, e.g., the include protos of Android variants with the same
+   * compile classpath, extract them only once. The tasks that run after one of them
+   * extracted the files copy, or link, them from its destDir; tasks that run at the same
+   * time extract their own instead of waiting.
+   *
+   * Default: false
+   */
+  @Internal("Does not affect the extracted files")
+  final Property<Boolean> reuseIdenticalExtraction = objectFactory.property(Boolean).convention(false)
+
+  /**
+   * The build service adding up the time of the plugin's phases. Set by the plugin when
+   * the {@code protobuf.metrics} Gradle property is true.
+   */
+  @Internal
+  abstract Property<ProtobufMetrics> getMetrics()
+
+  /**
+   * The build service writing the trace of the plugin's phases. Set by the plugin when
+   * the {@code protobuf.trace} Gradle property is true.
+   */
+  @Internal
+  abstract Property<ProtobufTrace> getTrace()
+
+  /**
+   * The build service through which tasks with the same inputs extract them once. Set by
+   * the plugin; if not set, {@link #getReuseIdenticalExtraction()} has no effect.
+   */
+  @Internal
+  abstract Property<OutputReuseRegistry> getOutputReuse()
 
   /**
    * Inputs for this task containing only proto files, which is enough for up-to-date checks.
    * Add inputs to inputFiles. Uses relative path sensitivity as directory layout changes impact output.
    */
+  @Incremental
   @InputFiles
   @PathSensitive(PathSensitivity.RELATIVE)
   public FileTree getInputProtoFiles() {
@@ -87,20 +146,170 @@ abstract class ProtobufExtract extends DefaultTask {
       .matching { PatternFilterable pattern -> pattern.include("**/*.proto") }
   }
 
+  /**
+   * The input file that each extracted file came from, by path relative to destDir.
+   * Used to only update the extracted files that changed, not to be called directly. It is
+   * not an output, so that destDir stays the only output of the task: proto source sets
+   * use the task itself as a source directory.
+   */
+  @Internal
+  protected File getExtractionRecord() {
+    return new File(temporaryDir, "extraction-record.json")
+  }
+
+  /**
+   * Syncs destDir with the proto files of the inputs. When an input is replaced, added or
+   * removed, only the files it provides, or provided, are updated. Files whose content does
+   * not change are not written, so that they keep their timestamps. If several inputs have
+   * a file at the same path, the last one wins.
+   */
   @TaskAction
-  public void extract() {
-    copyActionFacade.sync { spec ->
-      spec.includeEmptyDirs = false
-      spec.from(inputProtoFiles)
-      spec.into(destDir)
-      // gradle 7+ requires a duplicate strategy to be explicitly defined
-      spec.duplicatesStrategy = DuplicatesStrategy.INCLUDE
+  public void extract(InputChanges inputChanges) {
+    PluginEvents.Span span = PluginEvents.startTask(path, PluginEvents.listeners(metrics, trace))
+    try {
+      extractOrReuse(inputChanges)
+    } finally {
+      span.end()
+    }
+  }
+
+  private void extractOrReuse(InputChanges inputChanges) {
+    if (!reuseIdenticalExtraction.get() || !outputReuse.present) {
+      sync(inputChanges)
+      return
+    }
+    // The input files are identified by path, size and modification time, nothing to hash
+    OutputReuseRegistry.Claim claim = outputReuse.get().claim(extractionKey(), [])
+    if (claim.producedDir != null) {
+      copyExtractedFiles(claim.producedDir)
+      return
+    }
+    boolean extracted = false
+    try {
+      sync(inputChanges)
+      extracted = true
+    } finally {
+      if (extracted) {
+        outputReuse.get().produced(claim, destDir.get().asFile)
+      } else {
+        outputReuse.get().failed(claim)
+      }
+    }
+  }
+
+  private void sync(InputChanges inputChanges) {
+    PluginEvents.Span span = PluginEvents.start("sync extracted protos", path)
+    try {
+      sync(inputChanges, span)
+    } finally {
+      span.end()
+    }
+  }
+
+  private void sync(InputChanges inputChanges, PluginEvents.Span span) {
+    File dest = destDir.get().asFile
+    File recordFile = extractionRecord
+    Map<String, String> previousOrigins = inputChanges.incremental ? readRecord(recordFile) : null
+    // Written again once extraction succeeds; without it the next execution starts over.
+    recordFile.delete()
+
+    Map<String, File> files = [:]
+    Map<String, String> origins = new TreeMap<String, String>()
+    Set<String> linkable = [] as Set
+    Set<String> evictable = [] as Set
+    boolean link = useLinks.get()
+    collectSources(inputFiles.files, archiveActionFacade, extractionCache.getOrNull(), objectFactory, logger,
+        new AtomicBoolean(true)).each { Source source ->
+      source.protos.visit { FileVisitDetails details ->
+        if (!details.directory) {
+          String path = details.relativePath.pathString
+          files.put(path, details.file)
+          origins.put(path, source.origin)
+          if (link && source.linkable) {
+            linkable.add(path)
+          } else {
+            linkable.remove(path)
+          }
+          if (source.evictable) {
+            evictable.add(path)
+          } else {
+            evictable.remove(path)
+          }
+        }
+      }
+    }
+
+    int written = 0
+    int deleted
+    if (previousOrigins == null) {
+      files.each { String path, File file ->
+        written += materialize(file, new File(dest, path), linkable.contains(path), !evictable.contains(path)) ? 1 : 0
+      }
+      deleted = StagedOutputs.deleteStale(dest, files.keySet())
+    } else {
+      Set<String> affected = [] as Set
+      inputChanges.getFileChanges(inputProtoFiles).each { FileChange change ->
+        affected.add(change.normalizedPath)
+      }
+      // A file also changes when another input provides it now
+      (previousOrigins.keySet() + origins.keySet()).each { String path ->
+        if (previousOrigins.get(path) != origins.get(path)) {
+          affected.add(path)
+        }
+      }
+      deleted = 0
+      affected.each { String path ->
+        File file = files.get(path)
+        if (file != null) {
+          boolean changed = materialize(file, new File(dest, path), linkable.contains(path), !evictable.contains(path))
+          written += changed ? 1 : 0
+        } else if (new File(dest, path).delete()) {
+          deleted++
+        }
+      }
+      StagedOutputs.deleteEmptyDirs(dest)
+    }
+    writeRecord(recordFile, origins)
+    span.files(files.size()).changedFiles(written + deleted)
+    logger.info("${path}: ${written} of ${files.size()} extracted file(s) changed, ${deleted} deleted")
+  }
+
+  /**
+   * Returns what identifies the input files of this task: their paths, sizes and
+   * modification times, in order.
+   */
+  private String extractionKey() {
+    return inputFiles.files.collect { File file ->
+      return "${file.absolutePath}:${file.length()}:${file.lastModified()}".toString()
+    }.join("\n").digest("SHA-256")
+  }
+
+  /**
+   * Makes destDir a copy of {@code producedDir}, where another task extracted the same
+   * files.
+   */
+  private void copyExtractedFiles(File producedDir) {
+    File dest = destDir.get().asFile
+    List<String> files = StagedOutputs.listFiles(producedDir)
+    boolean link = useLinks.get()
+    int written = 0
+    files.each { String path ->
+      written += materialize(new File(producedDir, path), new File(dest, path), link, true) ? 1 : 0
     }
+    int deleted = StagedOutputs.deleteStale(dest, files)
+    // Their origin is unknown, so the next execution checks them all
+    writeRecord(extractionRecord,
+        files.collectEntries { String path -> [(path): producedDir.path] } as Map<String, String>)
+    logger.info("${path}: reused the files extracted from the same inputs in ${producedDir}, " +
+        "${written} of ${files.size()} changed, ${deleted} deleted")
   }
 
   @Inject
   protected abstract ObjectFactory getObjectFactory()
 
+  @Inject
+  protected abstract ProviderFactory getProviderFactory()
+
   private ArchiveActionFacade instantiateArchiveActionFacade() {
     if (GradleVersion.current() >= GradleVersion.version("6.6")) {
       // Use object factory to instantiate as that will inject the necessary service.
@@ -114,56 +323,157 @@ abstract class ProtobufExtract extends DefaultTask {
   }
 
   private FileCollection instantiateFilteredProtos() {
-    boolean warningLogged = false
+    AtomicBoolean warningNotLogged = new AtomicBoolean(true)
     ArchiveActionFacade archiveFacade = this.archiveActionFacade
     Logger logger = this.logger
     // Provider.map seems broken for excluded tasks. Add inputFiles with all contents excluded for
     // the dependency it provides, but then provide the files we actually care about in our own
     // provider. https://github.com/google/protobuf-gradle-plugin/issues/550
-    // Additionally depend on a dummy task for the own provider so that it is executed at
-    // execution time even with configuration cache enabled.
-    // https://github.com/google/protobuf-gradle-plugin/issues/711
+    // The own provider maps the extraction cache, a build service, so that it is evaluated at
+    // execution time even with configuration cache enabled, and the configuration cache does
+    // not depend on the inputs. https://github.com/google/protobuf-gradle-plugin/issues/711
+    // Without the cache, e.g., for tasks not created by the plugin, it is evaluated when needed.
     FileCollection inputFiles = this.inputFiles
+    Provider<ProtobufMetrics> metrics = this.metrics
+    Provider<ProtobufTrace> trace = this.trace
+    String taskPath = path
+    ObjectFactory objects = this.objectFactory
+    Closure<List<FileTree>> protos = { ProtoExtractionCache cache ->
+      // Archives are extracted here, before the task action
+      return PluginEvents.inTask(taskPath, PluginEvents.listeners(metrics, trace)) {
+        return collectSources(inputFiles.files, archiveFacade, cache, objects, logger,
+            warningNotLogged).collect { Source source -> source.protos }
+      }
+    }
     return objectFactory.fileCollection()
         .from(inputFiles.filter { false })
-        .from(dummyTaskDependency.elements.map { unused ->
-            Set<File> files = inputFiles.files
-            PatternSet protoFilter = new PatternSet().include("**/*.proto")
-            Set<Object> protoInputs = [] as Set
-            for (File file : files) {
-              if (file.isDirectory()) {
-                protoInputs.add(file)
-              } else if (file.path.endsWith('.proto')) {
-                if (!warningLogged) {
-                  warningLogged = true
-                  logger.warn "proto file '${file.path}' directly specified in configuration. " +
-                          "It's likely you specified files('path/to/foo.proto') or " +
-                          "fileTree('path/to/directory') in protobuf or compile configuration. " +
-                          "This makes you vulnerable to " +
-                          "https://github.com/google/protobuf-gradle-plugin/issues/248. " +
-                          "Please use files('path/to/directory') instead."
-                }
-                protoInputs.add(file)
-              } else if (file.path.endsWith('.jar') || file.path.endsWith('.zip')) {
-                protoInputs.add(archiveFacade.zipTree(file.path).matching(protoFilter))
-              } else if (file.path.endsWith('.aar')) {
-                FileCollection zipTree = archiveFacade.zipTree(file.path).filter {
-                    File entry -> entry.path.endsWith('.jar')
-                }
-                zipTree.each { entry ->
-                  protoInputs.add(archiveFacade.zipTree(entry).matching(protoFilter))
-                }
-              } else if (file.path.endsWith('.tar')
-                      || file.path.endsWith('.tar.gz')
-                      || file.path.endsWith('.tar.bz2')
-                      || file.path.endsWith('.tgz')) {
-                protoInputs.add(archiveFacade.tarTree(file.path).matching(protoFilter))
-              } else {
-                logger.debug "Skipping unsupported file type (${file.path}); " +
-                        "handles only jar, tar, tar.gz, tar.bz2 & tgz"
-              }
-            }
-            return protoInputs
+        .from(extractionCache.map { ProtoExtractionCache cache -> protos.call(cache) }
+            .orElse(providerFactory.provider { protos.call(null) }))
+  }
+
+  /**
+   * Returns the type of a file input, other than a directory, by its path.
+   */
+  @PackageScope
+  static InputType inputTypeOf(String path) {
+    if (path.endsWith('.proto')) {
+      return InputType.PROTO
+    }
+    if (path.endsWith('.jar') || path.endsWith('.zip')) {
+      return InputType.ZIP
+    }
+    if (path.endsWith('.aar')) {
+      return InputType.AAR
+    }
+    if (path.endsWith('.tar') || path.endsWith('.tar.gz') || path.endsWith('.tar.bz2') || path.endsWith('.tgz')) {
+      return InputType.TAR
+    }
+    return InputType.UNSUPPORTED
+  }
+
+  /**
+   * Returns where the proto files of the given input files are, in order. Archives that the
+   * extraction cache supports are read from the cache, if there is one.
+   */
+  private static List<Source> collectSources(
+      Set<File> files,
+      ArchiveActionFacade archiveFacade,
+      ProtoExtractionCache extractionCache,
+      ObjectFactory objects,
+      Logger logger,
+      AtomicBoolean warningNotLogged
+  ) {
+    PatternSet protoFilter = new PatternSet().include("**/*.proto")
+    List<Source> sources = []
+    // Extracts the archives missing from the cache up front, in parallel
+    Map<File, File> cached = extractionCache == null ? [:] : extractionCache.protosOf(files.findAll { File file ->
+      return file.isFile() && ProtoExtractionCache.supports(file)
     })
+    for (File file : files) {
+      InputType type = inputTypeOf(file.path)
+      if (file.isDirectory()) {
+        sources.add(new Source(file.path, objects.fileTree().from(file).matching(protoFilter), true, false))
+      } else if (type == InputType.PROTO) {
+        if (warningNotLogged.getAndSet(false)) {
+          logger.warn "proto file '${file.path}' directly specified in configuration. " +
+                  "It's likely you specified files('path/to/foo.proto') or " +
+                  "fileTree('path/to/directory') in protobuf or compile configuration. " +
+                  "This makes you vulnerable to " +
+                  "https://github.com/google/protobuf-gradle-plugin/issues/248. " +
+                  "Please use files('path/to/directory') instead."
+        }
+        sources.add(new Source(file.path, objects.fileCollection().from(file).asFileTree, true, false))
+      } else if (cached.containsKey(file)) {
+        // Its entry only has the proto files, with the same relative paths as in the archive.
+        // Archives without proto files have none, and are left out of the inputs entirely.
+        File entry = cached.get(file)
+        if (entry != null) {
+          sources.add(new Source(file.path, objects.fileTree().from(entry), true, true))
+        }
+      } else if (type == InputType.ZIP) {
+        sources.add(new Source(file.path, archiveFacade.zipTree(file.path).matching(protoFilter), false, false))
+      } else if (type == InputType.AAR) {
+        FileCollection zipTree = archiveFacade.zipTree(file.path).filter {
+            File entry -> entry.path.endsWith('.jar')
+        }
+        zipTree.each { entry ->
+          sources.add(new Source(file.path, archiveFacade.zipTree(entry).matching(protoFilter), false, false))
+        }
+      } else if (type == InputType.TAR) {
+        sources.add(new Source(file.path, archiveFacade.tarTree(file.path).matching(protoFilter), false, false))
+      } else {
+        logger.debug "Skipping unsupported file type (${file.path}); " +
+                "handles only jar, tar, tar.gz, tar.bz2 & tgz"
+      }
+    }
+    return sources
+  }
+
+  private static boolean materialize(File source, File target, boolean link, boolean symbolic) {
+    return link ? StagedOutputs.link(source, target, symbolic) : StagedOutputs.copy(source, target)
+  }
+
+  private static Map<String, String> readRecord(File file) {
+    if (!file.isFile()) {
+      return null
+    }
+    try {
+      return new JsonSlurper().parse(file, "UTF-8") as Map<String, String>
+    } catch (JsonException ignored) {
+      return null
+    }
+  }
+
+  private static void writeRecord(File file, Map<String, String> origins) {
+    GenerateProtoTask.mkdirsForFile(file)
+    file.setText(JsonOutput.toJson(origins), "UTF-8")
+  }
+
+  /**
+   * The types of file inputs, see {@link #inputTypeOf(String)}.
+   */
+  @PackageScope
+  static enum InputType {
+    PROTO, ZIP, AAR, TAR, UNSUPPORTED
+  }
+
+  /**
+   * The proto files of an input file, i.e., of a directory, a proto file or an archive.
+   */
+  private static class Source {
+    final String origin
+    final FileTree protos
+    // Whether the files stay where they are after the task, so that they can be linked
+    final boolean linkable
+    // Whether the files are in a cache that may delete them, so that they are never
+    // symbolically linked
+    final boolean evictable
+
+    Source(String origin, FileTree protos, boolean linkable, boolean evictable) {
+      this.origin = origin
+      this.protos = protos
+      this.linkable = linkable
+      this.evictable = evictable
+    }
   }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * A build service that adds up the phases measured by {@link PluginEvents} during the
+ * build, by phase name. When the build finishes, it logs a summary and writes it as JSON
+ * to {@code reports/protobuf/metrics.json} under the build directory of the root project.
+ *
+ * <p>Enabled by setting the {@code protobuf.metrics} Gradle property to true.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ProtobufMetrics implements BuildService<Parameters>, AutoCloseable, PluginEvents.Listener {
+  static final String NAME = "protobufMetrics"
+  static final String ENABLED_PROPERTY = "protobuf.metrics"
+
+  private static final Logger LOGGER = Logging.getLogger(ProtobufMetrics)
+
+  private final Map<String, Totals> totals = new TreeMap<String, Totals>()
+  private final Object lock = new Object()
+
+  /**
+   * The settings of the service.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the summary is written. */
+    RegularFileProperty getReportFile()
+  }
+
+  /**
+   * Returns true if the {@code protobuf.metrics} Gradle property is set to true.
+   */
+  static boolean isEnabled(Project project) {
+    return project.providers.gradleProperty(ENABLED_PROPERTY)
+        .map { String value -> Boolean.parseBoolean(value.trim()) }
+        .getOrElse(false)
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ProtobufMetrics> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ProtobufMetrics) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.reportFile.set(project.rootProject.layout.buildDirectory.file("reports/protobuf/metrics.json"))
+    }
+  }
+
+  @Override
+  void phaseEnded(PluginEvents.Phase phase) {
+    synchronized (lock) {
+      Totals phaseTotals = totals.get(phase.name)
+      if (phaseTotals == null) {
+        phaseTotals = new Totals()
+        totals.put(phase.name, phaseTotals)
+      }
+      phaseTotals.add(phase)
+    }
+  }
+
+  @Override
+  void close() {
+    Map<String, Object> summary = [:]
+    synchronized (lock) {
+      if (totals.isEmpty()) {
+        return
+      }
+      StringBuilder message = new StringBuilder("Protobuf plugin phases:")
+      totals.each { String name, Totals phaseTotals ->
+        message.append("\n  ${name}: ${phaseTotals.count} in ${phaseTotals.millis()} ms")
+        phaseTotals.values.each { String key, Long value ->
+          message.append(", ${key} ${value}")
+        }
+        if (phaseTotals.failures > 0) {
+          message.append(", ${phaseTotals.failures} failed")
+        }
+        summary.put(name, phaseTotals.toJson())
+      }
+      LOGGER.lifecycle(message.toString())
+    }
+    File report = parameters.reportFile.get().asFile
+    report.parentFile.mkdirs()
+    report.setText(JsonOutput.prettyPrint(JsonOutput.toJson(summary)), "UTF-8")
+  }
+
+  /**
+   * The totals of the phases with the same name.
+   */
+  private static class Totals {
+    int count
+    long durationNanos
+    // The sums of the values set on the phases, except exit statuses
+    final Map<String, Long> values = new TreeMap<String, Long>()
+    int failures
+
+    void add(PluginEvents.Phase phase) {
+      count++
+      durationNanos += phase.durationNanos
+      phase.values.each { String key, Long value ->
+        if (key == "exitStatus") {
+          failures += value != 0 ? 1 : 0
+        } else {
+          values.put(key, values.getOrDefault(key, 0L) + value)
+        }
+      }
+    }
+
+    long millis() {
+      return TimeUnit.NANOSECONDS.toMillis(durationNanos)
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = [count: count, durationMillis: millis()] as Map<String, Object>
+      json.putAll(values)
+      if (failures > 0) {
+        json.put("failures", failures)
+      }
+      return json
+    }
+  }
+}
@@ -37,9 +37,9 @@ import groovy.transform.TypeCheckingMode
 import org.gradle.api.Action
 import org.gradle.api.DefaultTask
 import org.gradle.api.GradleException
+import org.gradle.api.NamedDomainObjectProvider
 import org.gradle.api.Plugin
 import org.gradle.api.Project
-import org.gradle.api.Task
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.attributes.LibraryElements
 import org.gradle.api.attributes.Usage
@@ -51,11 +51,14 @@ import org.gradle.api.file.FileSystemOperations
 import org.gradle.api.file.SourceDirectorySet
 import org.gradle.api.plugins.AppliedPlugin
 import org.gradle.api.plugins.JavaPluginExtension
+import org.gradle.api.provider.Property
 import org.gradle.api.provider.Provider
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.SourceSet
 import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.TaskProvider
 import org.gradle.util.GradleVersion
 import javax.inject.Inject
 
@@ -78,6 +81,7 @@ class ProtobufPlugin implements Plugin<Project> {
     private Project project
     @PackageScope ProtobufExtension protobufExtension
     private boolean wasApplied = false
+    private boolean extractWithTransform = false
 
     void apply(final Project project) {
       if (GradleVersion.current() < GradleVersion.version("5.6")) {
@@ -127,16 +131,58 @@ class ProtobufPlugin implements Plugin<Project> {
         // extract included protos from {@code variant.compileConfiguration}
         // of each variant.
         Collection<Closure> postConfigure = []
-        Provider<Task> dummyTask = project.tasks.register("protobufDummy")
+        Provider<ProtoExtractionCache> extractionCache = ProtoExtractionCache.register(project)
+        Provider<OutputReuseRegistry> outputReuse = OutputReuseRegistry.register(project)
+        project.tasks.withType(ProtobufExtract).configureEach { ProtobufExtract task ->
+          task.extractionCache.set(extractionCache)
+          task.usesService(extractionCache)
+          task.outputReuse.set(outputReuse)
+          task.usesService(outputReuse)
+        }
+        if (ProtobufMetrics.isEnabled(project)) {
+          Provider<ProtobufMetrics> metrics = ProtobufMetrics.register(project)
+          project.tasks.withType(ProtobufExtract).configureEach { ProtobufExtract task ->
+            task.metrics.set(metrics)
+            task.usesService(metrics)
+          }
+          project.tasks.withType(GenerateProtoTask).configureEach { GenerateProtoTask task ->
+            task.metrics.set(metrics)
+            task.usesService(metrics)
+          }
+          project.tasks.withType(ProtoSyncTask).configureEach { ProtoSyncTask task ->
+            task.metrics.set(metrics)
+            task.usesService(metrics)
+          }
+        }
+        if (ProtobufTrace.isEnabled(project)) {
+          Provider<ProtobufTrace> trace = ProtobufTrace.register(project)
+          project.tasks.withType(ProtobufExtract).configureEach { ProtobufExtract task ->
+            task.trace.set(trace)
+            task.usesService(trace)
+          }
+          project.tasks.withType(GenerateProtoTask).configureEach { GenerateProtoTask task ->
+            task.trace.set(trace)
+            task.usesService(trace)
+          }
+          project.tasks.withType(ProtoSyncTask).configureEach { ProtoSyncTask task ->
+            task.trace.set(trace)
+            task.usesService(trace)
+          }
+        }
+        extractWithTransform = ProtoExtractTransform.isEnabled(project)
+        if (extractWithTransform) {
+          ProtoExtractTransform.register(project)
+        }
         if (isAndroid) {
-          ProtobufAndroidSupport.configure(project, this, dummyTask)
+          ProtobufAndroidSupport.configure(project, this)
         } else {
           project.extensions.getByType(JavaPluginExtension).sourceSets.configureEach { sourceSet ->
             ProtoSourceSet protoSourceSet = protobufExtension.sourceSets.create(sourceSet.name)
             addSourceSetExtension(sourceSet, protoSourceSet)
-            Configuration protobufConfig = createProtobufConfiguration(protoSourceSet)
-            Configuration compileProtoPath = createCompileProtoPathConfiguration(protoSourceSet)
-            addTasksForSourceSet(sourceSet, protoSourceSet, protobufConfig, compileProtoPath, postConfigure, dummyTask)
+            NamedDomainObjectProvider<Configuration> protobufConfig = createProtobufConfiguration(protoSourceSet)
+            NamedDomainObjectProvider<Configuration> compileProtoPath =
+                createCompileProtoPathConfiguration(protoSourceSet)
+            addTasksForSourceSet(sourceSet, protoSourceSet, protobufConfig, compileProtoPath, postConfigure)
           }
         }
         project.afterEvaluate {
@@ -153,21 +199,25 @@ class ProtobufPlugin implements Plugin<Project> {
     }
 
     /**
-     * Creates a 'protobuf' configuration for the given source set. The build author can
+     * Registers a 'protobuf' configuration for the given source set. The build author can
      * configure dependencies for it. The extract-protos task of each source set will
-     * extract protobuf files from dependencies in this configuration.
+     * extract protobuf files from dependencies in this configuration. It is only created
+     * when used, e.g., by a dependency declaration or the extract-protos task.
      */
     @PackageScope
-    Configuration createProtobufConfiguration(ProtoSourceSet protoSourceSet) {
+    NamedDomainObjectProvider<Configuration> createProtobufConfiguration(ProtoSourceSet protoSourceSet) {
       String protobufConfigName = Utils.getConfigName(protoSourceSet.name, 'protobuf')
-      return project.configurations.create(protobufConfigName) { Configuration config ->
+      return project.configurations.register(protobufConfigName) { Configuration config ->
         config.visible = false
         config.transitive = true
+        if (extractWithTransform) {
+          config.attributes.attribute(ProtoExtractTransform.PROTOS_EXTRACTED, true)
+        }
       }
     }
 
     /**
-     * Creates an internal 'compileProtoPath' configuration for the given source set that extends
+     * Registers an internal 'compileProtoPath' configuration for the given source set that extends
      * compilation configurations as a bucket of dependencies with resources attribute.
      * The extract-include-protos task of each source set will extract protobuf files from
      * resolved dependencies in this configuration.
@@ -175,13 +225,14 @@ class ProtobufPlugin implements Plugin<Project> {
      * <p> For Java projects only.
      * <p> This works around 'java-library' plugin not exposing resources to consumers for compilation.
      */
-    private Configuration createCompileProtoPathConfiguration(ProtoSourceSet protoSourceSet) {
+    private NamedDomainObjectProvider<Configuration> createCompileProtoPathConfiguration(
+        ProtoSourceSet protoSourceSet) {
       String compileProtoConfigName = Utils.getConfigName(protoSourceSet.name, 'compileProtoPath')
-      Configuration compileConfig =
-              project.configurations.getByName(Utils.getConfigName(protoSourceSet.name, 'compileOnly'))
-      Configuration implementationConfig =
-              project.configurations.getByName(Utils.getConfigName(protoSourceSet.name, 'implementation'))
-      return project.configurations.create(compileProtoConfigName) { Configuration config ->
+      return project.configurations.register(compileProtoConfigName) { Configuration config ->
+          Configuration compileConfig =
+                  project.configurations.getByName(Utils.getConfigName(protoSourceSet.name, 'compileOnly'))
+          Configuration implementationConfig =
+                  project.configurations.getByName(Utils.getConfigName(protoSourceSet.name, 'implementation'))
           config.visible = false
           config.transitive = true
           config.extendsFrom = [compileConfig, implementationConfig]
@@ -202,6 +253,10 @@ class ProtobufPlugin implements Plugin<Project> {
                 .attribute(
                         Usage.USAGE_ATTRIBUTE,
                         project.getObjects().named(Usage, Usage.JAVA_RUNTIME))
+          if (extractWithTransform) {
+            // Archives are resolved as directories of their protos, see ProtoExtractTransform
+            config.attributes.attribute(ProtoExtractTransform.PROTOS_EXTRACTED, true)
+          }
       }
     }
 
@@ -224,12 +279,10 @@ class ProtobufPlugin implements Plugin<Project> {
      * Creates Protobuf tasks for a sourceSet in a Java project.
      */
     private void addTasksForSourceSet(
-        SourceSet sourceSet, ProtoSourceSet protoSourceSet, Configuration protobufConfig,
-        Configuration compileProtoPath, Collection<Closure> postConfigure, Provider<Task> dummyTask) {
-      Provider<ProtobufExtract> extractProtosTask = setupExtractProtosTask(protoSourceSet, protobufConfig, dummyTask)
-
-      Provider<ProtobufExtract> extractIncludeProtosTask = setupExtractIncludeProtosTask(
-        protoSourceSet, compileProtoPath, dummyTask)
+        SourceSet sourceSet, ProtoSourceSet protoSourceSet, NamedDomainObjectProvider<Configuration> protobufConfig,
+        NamedDomainObjectProvider<Configuration> compileProtoPath, Collection<Closure> postConfigure) {
+      setupExtractProtosTask(protoSourceSet, protobufConfig)
+      setupExtractIncludeProtosTask(protoSourceSet, project.files(compileProtoPath))
 
       // Make protos in 'test' sourceSet able to import protos from the 'main' sourceSet.
       // Pass include proto files from main to test.
@@ -237,7 +290,7 @@ class ProtobufPlugin implements Plugin<Project> {
         protoSourceSet.includesFrom(protobufExtension.sourceSets.getByName("main"))
       }
 
-      Provider<GenerateProtoTask> generateProtoTask = addGenerateProtoTask(protoSourceSet) {
+      TaskProvider<GenerateProtoTask> generateProtoTask = addGenerateProtoTask(protoSourceSet) {
         GenerateProtoTask task ->
         task.sourceSet = sourceSet
         task.doneInitializing()
@@ -262,6 +315,7 @@ class ProtobufPlugin implements Plugin<Project> {
         project.plugins.withId("eclipse") {
           // This is required because the intellij/eclipse plugin does not allow adding source directories
           // that do not exist. The intellij/eclipse config files should be valid from the start.
+          // Only projects applying the eclipse plugin create the generate task here.
           generateProtoTask.get().getOutputSourceDirectories().each { File outputDir ->
             outputDir.mkdirs()
           }
@@ -272,8 +326,11 @@ class ProtobufPlugin implements Plugin<Project> {
           protoSourceSet.proto.srcDirs.each { File protoDir ->
             Utils.addToIdeSources(project, isTest, protoDir, false)
           }
-          Utils.addToIdeSources(project, isTest, project.files(extractProtosTask).singleFile, true)
-          Utils.addToIdeSources(project, isTest, project.files(extractIncludeProtosTask).singleFile, true)
+          // The extract tasks are not needed for their output directories
+          Utils.addToIdeSources(project, isTest, project.file(getExtractedProtosDir(sourceSet.name)), true)
+          Utils.addToIdeSources(project, isTest, project.file(getExtractedIncludeProtosDir(sourceSet.name)), true)
+          // Only projects applying the idea plugin create the generate task here. The model is
+          // complete without running an idea task, e.g., for Tooling API clients.
           generateProtoTask.get().getOutputSourceDirectories().each { File outputDir ->
             Utils.addToIdeSources(project, isTest, outputDir, true)
           }
@@ -292,16 +349,38 @@ class ProtobufPlugin implements Plugin<Project> {
      * for; for Android it's the collection of sourceSets that the variant includes.
      */
     @PackageScope
-    Provider<GenerateProtoTask> addGenerateProtoTask(
+    TaskProvider<GenerateProtoTask> addGenerateProtoTask(
         ProtoSourceSet protoSourceSet,
         Action<GenerateProtoTask> configureAction
     ) {
       String sourceSetName = protoSourceSet.name
       String taskName = 'generate' + Utils.getSourceSetSubstringForTaskNames(sourceSetName) + 'Proto'
       DirectoryProperty generatedFilesBaseDirProperty = protobufExtension.generatedFilesBaseDirProperty
-      Provider<GenerateProtoTask> task = project.tasks.register(taskName, GenerateProtoTask) {
+      ToolsLocator tools = protobufExtension.tools
+      Provider<String> javaExecutablePath = protobufExtension.javaExecutablePath
+      Provider<ProtocProcessLimiter> processLimiter = ProtocProcessLimiter.register(project)
+      Provider<PluginHostService> pluginHost = PluginHostService.register(project)
+      Provider<ToolRegistry> toolRegistry = ToolRegistry.register(project)
+      Provider<OutputReuseRegistry> outputReuse = OutputReuseRegistry.register(project)
+      Provider<PluginResponseCache> responseCache = PluginResponseCache.register(project)
+      Provider<ClassDataSharing> classDataSharing = ClassDataSharing.register(project)
+      TaskProvider<GenerateProtoTask> task = project.tasks.register(taskName, GenerateProtoTask) {
         GenerateProtoTask protoTask ->
         protoTask.description = "Compiles Proto source for '${sourceSetName}'".toString()
+        protoTask.toolsLocator.set(tools)
+        protoTask.javaExecutablePath.convention(javaExecutablePath)
+        protoTask.processLimiter.set(processLimiter)
+        protoTask.usesService(processLimiter)
+        protoTask.pluginHost.set(pluginHost)
+        protoTask.usesService(pluginHost)
+        protoTask.toolRegistry.set(toolRegistry)
+        protoTask.usesService(toolRegistry)
+        protoTask.outputReuse.set(outputReuse)
+        protoTask.usesService(outputReuse)
+        protoTask.pluginResponseCache.set(responseCache)
+        protoTask.usesService(responseCache)
+        protoTask.classDataSharing.set(classDataSharing)
+        protoTask.usesService(classDataSharing)
         protoTask.addSourceDirs(protoSourceSet.proto)
         protoTask.addIncludeDir(protoSourceSet.proto.sourceDirectories)
         protoTask.addIncludeDir(protoSourceSet.includeProtoDirs)
@@ -324,8 +403,7 @@ class ProtobufPlugin implements Plugin<Project> {
     @PackageScope
     Provider<ProtobufExtract> setupExtractProtosTask(
       ProtoSourceSet protoSourceSet,
-      Configuration protobufConfig,
-      Provider<Task> dummyTask
+      NamedDomainObjectProvider<Configuration> protobufConfig
     ) {
       String sourceSetName = protoSourceSet.name
       String taskName = getExtractProtosTaskName(sourceSetName)
@@ -333,7 +411,6 @@ class ProtobufPlugin implements Plugin<Project> {
         task.description = "Extracts proto files/dependencies specified by 'protobuf' configuration"
         task.destDir.set(getExtractedProtosDir(sourceSetName) as File)
         task.inputFiles.from(protobufConfig)
-        task.dummyTaskDependency.from(dummyTask)
       }
       protoSourceSet.proto.srcDir(task)
       return task
@@ -353,15 +430,13 @@ class ProtobufPlugin implements Plugin<Project> {
     @PackageScope
     Provider<ProtobufExtract> setupExtractIncludeProtosTask(
         ProtoSourceSet protoSourceSet,
-        FileCollection archives,
-        Provider<Task> dummyTask
+        FileCollection archives
     ) {
       String taskName = 'extractInclude' + Utils.getSourceSetSubstringForTaskNames(protoSourceSet.name) + 'Proto'
       Provider<ProtobufExtract> task = project.tasks.register(taskName, ProtobufExtract) { ProtobufExtract task ->
         task.description = "Extracts proto files from compile dependencies for includes"
         task.destDir.set(getExtractedIncludeProtosDir(protoSourceSet.name) as File)
         task.inputFiles.from(archives)
-        task.dummyTaskDependency.from(dummyTask)
       }
       protoSourceSet.includeProtoDirs.from(task)
       return task
@@ -385,12 +460,29 @@ class ProtobufPlugin implements Plugin<Project> {
       @OutputDirectory
       abstract DirectoryProperty getDestinationDirectory()
 
+      /**
+       * The build service adding up the time of the plugin's phases, if enabled.
+       */
+      @Internal
+      abstract Property<ProtobufMetrics> getMetrics()
+
+      /**
+       * The build service writing the trace of the plugin's phases, if enabled.
+       */
+      @Internal
+      abstract Property<ProtobufTrace> getTrace()
+
       @TaskAction
       void sync() {
-          getFileSystem().sync { CopySpec spec ->
-              spec.from(getSource())
-              spec.into(getDestinationDirectory())
-              spec.include('**/*.proto')
+          PluginEvents.Span span = PluginEvents.startTask(path, PluginEvents.listeners(metrics, trace))
+          try {
+              getFileSystem().sync { CopySpec spec ->
+                  spec.from(getSource())
+                  spec.into(getDestinationDirectory())
+                  spec.include('**/*.proto')
+              }
+          } finally {
+              span.end()
           }
         }
     }
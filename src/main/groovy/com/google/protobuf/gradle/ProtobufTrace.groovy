@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * A build service that records the phases measured by {@link PluginEvents} during the
+ * build: the actions of the {@link GenerateProtoTask}s, {@link ProtobufExtract}s and proto
+ * resource sync tasks of all projects, each protoc invocation with its batch, the time it waited for a slot and its
+ * peak memory, and the phases they are made of. When the build finishes, it writes them
+ * to {@code reports/protobuf/trace.json} under the build directory of the root project, in the
+ * Chrome trace event format that chrome://tracing and https://ui.perfetto.dev open, and
+ * logs a summary table per task that it also writes to {@code trace-summary.txt}.
+ *
+ * <p>Enabled by setting the {@code protobuf.trace} Gradle property to true.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ProtobufTrace implements BuildService<Parameters>, AutoCloseable, PluginEvents.Listener {
+  static final String NAME = "protobufTrace"
+  static final String ENABLED_PROPERTY = "protobuf.trace"
+
+  private static final Logger LOGGER = Logging.getLogger(ProtobufTrace)
+
+  private final List<PluginEvents.Phase> phases = []
+  private final Object lock = new Object()
+
+  /**
+   * The settings of the service.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the trace and the summary are written. */
+    DirectoryProperty getReportDir()
+  }
+
+  /**
+   * Returns true if the {@code protobuf.trace} Gradle property is set to true.
+   */
+  static boolean isEnabled(Project project) {
+    return project.providers.gradleProperty(ENABLED_PROPERTY)
+        .map { String value -> Boolean.parseBoolean(value.trim()) }
+        .getOrElse(false)
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ProtobufTrace> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ProtobufTrace) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.reportDir.set(project.rootProject.layout.buildDirectory.dir("reports/protobuf"))
+    }
+  }
+
+  /**
+   * Returns the trace events of the given phases, see
+   * https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU.
+   * Each thread gets a row; a protoc invocation that waited for a slot is preceded by a
+   * "queued" slice on its row.
+   */
+  static List<Map<String, Object>> traceEvents(List<PluginEvents.Phase> phases) {
+    List<Map<String, Object>> events = []
+    if (phases.isEmpty()) {
+      return events
+    }
+    List<PluginEvents.Phase> sorted = phases.sort(false) { PluginEvents.Phase phase -> phase.startNanos }
+    long origin = sorted[0].startNanos
+    Map<String, Integer> threadIds = [:]
+    events.add(metadata("process_name", 0, [name: "protobuf-gradle-plugin"] as Map<String, Object>))
+    for (PluginEvents.Phase phase : sorted) {
+      Integer tid = threadIds.get(phase.thread)
+      if (tid == null) {
+        tid = threadIds.size() + 1
+        threadIds.put(phase.thread, tid)
+        events.add(metadata("thread_name", tid, [name: phase.thread] as Map<String, Object>))
+      }
+      long startMicros = TimeUnit.NANOSECONDS.toMicros(phase.startNanos - origin)
+      long waitMillis = phase.values.getOrDefault("queueWaitMillis", 0L)
+      if (waitMillis > 0) {
+        events.add(slice("queued", "queue", startMicros - TimeUnit.MILLISECONDS.toMicros(waitMillis),
+            TimeUnit.MILLISECONDS.toMicros(waitMillis), tid, [task: phase.task, detail: phase.detail]))
+      }
+      Map<String, Object> args = [task: phase.task, detail: phase.detail] as Map<String, Object>
+      args.putAll(phase.values)
+      events.add(slice(phase.name == "task" ? phase.detail : phase.name, phase.name, startMicros,
+          TimeUnit.NANOSECONDS.toMicros(phase.durationNanos), tid, args))
+    }
+    return events
+  }
+
+  /**
+   * Returns the summary table of the given phases: a row per task, in the order they
+   * started, with the time of its action, of its protoc invocations and of their waits for
+   * a slot, and the highest peak memory of the invocations.
+   */
+  static String summary(List<PluginEvents.Phase> phases) {
+    Map<String, TaskRow> rows = [:]
+    List<PluginEvents.Phase> sorted = phases.sort(false) { PluginEvents.Phase phase -> phase.startNanos }
+    for (PluginEvents.Phase phase : sorted) {
+      if (phase.task == null) {
+        continue
+      }
+      TaskRow row = rows.get(phase.task)
+      if (row == null) {
+        row = new TaskRow()
+        rows.put(phase.task, row)
+      }
+      if (phase.name == "task") {
+        row.nanos += phase.durationNanos
+      } else if (phase.name == "protoc") {
+        row.invocations++
+        row.protocNanos += phase.durationNanos
+        row.queueWaitMillis += phase.values.getOrDefault("queueWaitMillis", 0L)
+        row.peakRssKb = Math.max(row.peakRssKb, phase.values.getOrDefault("peakRssKb", -1L))
+      }
+    }
+    int width = Math.max(4, (rows.keySet()*.length().max() ?: 0) as int)
+    String format = "%-${width}s %10s %8s %10s %10s %9s%n"
+    StringBuilder table = new StringBuilder()
+    table.append(String.format(format, "Task", "Time (ms)", "protoc", "protoc ms", "Queued ms", "Peak RSS"))
+    rows.each { String task, TaskRow row ->
+      table.append(String.format(format, task, TimeUnit.NANOSECONDS.toMillis(row.nanos), row.invocations,
+          TimeUnit.NANOSECONDS.toMillis(row.protocNanos), row.queueWaitMillis,
+          row.peakRssKb >= 0 ? "${row.peakRssKb.intdiv(1024)} MB".toString() : "-"))
+    }
+    table.append(String.format("At most %d protoc processes ran at once.%n", maxConcurrentProtoc(sorted)))
+    return table.toString()
+  }
+
+  private static int maxConcurrentProtoc(List<PluginEvents.Phase> sorted) {
+    // The end times of the invocations running at the start of the current one
+    PriorityQueue<Long> running = new PriorityQueue<Long>()
+    int max = 0
+    for (PluginEvents.Phase phase : sorted) {
+      if (phase.name != "protoc") {
+        continue
+      }
+      while (!running.isEmpty() && running.peek() <= phase.startNanos) {
+        running.poll()
+      }
+      running.add(phase.startNanos + phase.durationNanos)
+      max = Math.max(max, running.size())
+    }
+    return max
+  }
+
+  private static Map<String, Object> metadata(String name, int tid, Map<String, Object> args) {
+    return [name: name, ph: "M", pid: 1, tid: tid, args: args] as Map<String, Object>
+  }
+
+  private static Map<String, Object> slice(
+      String name, String category, long startMicros, long durationMicros, int tid, Map<String, Object> args) {
+    return [
+        name: name, cat: category, ph: "X", ts: startMicros, dur: durationMicros, pid: 1, tid: tid, args: args,
+    ] as Map<String, Object>
+  }
+
+  @Override
+  void phaseEnded(PluginEvents.Phase phase) {
+    synchronized (lock) {
+      phases.add(phase)
+    }
+  }
+
+  @Override
+  void close() {
+    List<PluginEvents.Phase> recorded
+    synchronized (lock) {
+      recorded = new ArrayList<PluginEvents.Phase>(phases)
+    }
+    if (recorded.isEmpty()) {
+      return
+    }
+    File dir = parameters.reportDir.get().asFile
+    dir.mkdirs()
+    File trace = new File(dir, "trace.json")
+    Map<String, Object> json = [traceEvents: traceEvents(recorded), displayTimeUnit: "ms"] as Map<String, Object>
+    trace.setText(JsonOutput.toJson(json), "UTF-8")
+    String table = summary(recorded)
+    new File(dir, "trace-summary.txt").setText(table, "UTF-8")
+    LOGGER.lifecycle("Protobuf plugin trace written to ${trace.toURI()}\n${table}")
+  }
+
+  /**
+   * The totals of a task in the summary table.
+   */
+  private static class TaskRow {
+    long nanos
+    int invocations
+    long protocNanos
+    long queueWaitMillis
+    long peakRssKb = -1
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.Project
+import org.gradle.api.logging.LogLevel
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.Condition
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * A build service shared by all {@link GenerateProtoTask}s of a build that can bound how
+ * many protoc processes run at the same time, both by count and by their estimated
+ * memory. Neither is bounded unless set, so that builds run as many processes as Gradle
+ * runs tasks, like they do without the service. A protoc process weighs the protoc
+ * estimate, plus the JVM estimate for each JVM based plugin (or protoc) it starts
+ * through a trampoline script. Processes that don't fit wait in first come, first
+ * served order, and the time they waited is reported when the build finishes.
+ *
+ * <p>Configured with the following Gradle properties:
+ * <ul>
+ *   <li>{@code protobuf.maxProtocProcesses}: the maximum number of processes, by
+ *   default unlimited</li>
+ *   <li>{@code protobuf.protocMemoryBudgetMb}: the memory available to all of them,
+ *   in MB, by default unlimited</li>
+ *   <li>{@code protobuf.protocMemoryMb}: the estimated memory of protoc, in MB,
+ *   by default 256</li>
+ *   <li>{@code protobuf.jvmPluginMemoryMb}: the estimated memory of a JVM based
+ *   plugin, in MB, by default 512</li>
+ * </ul>
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ProtocProcessLimiter implements BuildService<Parameters>, AutoCloseable {
+  static final String NAME = "protobufProtocProcessLimiter"
+
+  private static final Logger LOGGER = Logging.getLogger(ProtocProcessLimiter)
+  private static final int DEFAULT_PROTOC_MEMORY_MB = 256
+  private static final int DEFAULT_JVM_PLUGIN_MEMORY_MB = 512
+
+  private final ReentrantLock lock = new ReentrantLock()
+  private final Condition changed = lock.newCondition()
+  // Tickets of the processes waiting to start, in arrival order
+  private final ArrayDeque<Object> waiting = new ArrayDeque<>()
+  private int runningProcesses
+  private long usedMemoryMb
+  private long processes
+  private long waitedProcesses
+  private long totalWaitNanos
+  private long maxWaitNanos
+
+  /**
+   * The limits of the service, see {@link ProtocProcessLimiter}.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** 0 means unlimited. */
+    Property<Integer> getMaxProcesses()
+
+    /** 0 means unlimited. */
+    Property<Integer> getMemoryBudgetMb()
+
+    Property<Integer> getProtocMemoryMb()
+
+    Property<Integer> getJvmPluginMemoryMb()
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ProtocProcessLimiter> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ProtocProcessLimiter) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.maxProcesses.set(intProperty(project, "protobuf.maxProtocProcesses").orElse(0))
+      spec.parameters.memoryBudgetMb.set(intProperty(project, "protobuf.protocMemoryBudgetMb").orElse(0))
+      spec.parameters.protocMemoryMb.set(intProperty(project, "protobuf.protocMemoryMb")
+          .orElse(DEFAULT_PROTOC_MEMORY_MB))
+      spec.parameters.jvmPluginMemoryMb.set(intProperty(project, "protobuf.jvmPluginMemoryMb")
+          .orElse(DEFAULT_JVM_PLUGIN_MEMORY_MB))
+    }
+  }
+
+  private static Provider<Integer> intProperty(Project project, String name) {
+    return project.providers.gradleProperty(name).map { String value -> Integer.valueOf(value.trim()) }
+  }
+
+  /**
+   * Returns the estimated memory, in MB, of a protoc process that starts
+   * {@code jvmProcesses} JVMs. It is capped to the budget, so that any process can
+   * run, if only on its own.
+   */
+  long weightMb(int jvmProcesses) {
+    long weight = parameters.protocMemoryMb.get() + (long) jvmProcesses * parameters.jvmPluginMemoryMb.get()
+    int budget = parameters.memoryBudgetMb.get()
+    return budget > 0 ? Math.min(weight, (long) budget) : weight
+  }
+
+  /**
+   * Waits until a process of the given weight may start and accounts for it. Each call
+   * must be followed by a call to {@link #release} with the same weight.
+   */
+  void acquire(long weightMb) throws InterruptedException {
+    Object ticket = new Object()
+    long start = System.nanoTime()
+    lock.lock()
+    try {
+      waiting.addLast(ticket)
+      try {
+        while (waiting.peekFirst() != ticket || !fits(weightMb)) {
+          changed.await()
+        }
+      } finally {
+        // Also on interruption, so that the processes queued behind it are not stuck
+        waiting.remove(ticket)
+        changed.signalAll()
+      }
+      runningProcesses++
+      usedMemoryMb += weightMb
+      long waitNanos = System.nanoTime() - start
+      processes++
+      if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+        waitedProcesses++
+        totalWaitNanos += waitNanos
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos)
+      }
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  /**
+   * Accounts for the end of a process started after {@link #acquire}.
+   */
+  void release(long weightMb) {
+    lock.lock()
+    try {
+      runningProcesses--
+      usedMemoryMb -= weightMb
+      changed.signalAll()
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  @Override
+  void close() {
+    lock.lock()
+    try {
+      if (processes == 0) {
+        return
+      }
+      int maxProcesses = parameters.maxProcesses.get()
+      String report = "protoc processes: ${processes} started, ${waitedProcesses} waited for a slot " +
+          "(total ${TimeUnit.NANOSECONDS.toMillis(totalWaitNanos)}ms, " +
+          "max ${TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)}ms) with at most " +
+          "${maxProcesses > 0 ? maxProcesses : 'unlimited'} processes and a memory budget of " +
+          (parameters.memoryBudgetMb.get() > 0 ? "${parameters.memoryBudgetMb.get()}MB" : "unlimited")
+      // Only worth the user's attention when the limits slowed the build down
+      LOGGER.log(waitedProcesses > 0 ? LogLevel.LIFECYCLE : LogLevel.INFO, report)
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  private boolean fits(long weightMb) {
+    if (runningProcesses == 0) {
+      return true
+    }
+    int maxProcesses = parameters.maxProcesses.get()
+    int budget = parameters.memoryBudgetMb.get()
+    return (maxProcesses <= 0 || runningProcesses < maxProcesses) &&
+        (budget <= 0 || usedMemoryMb + weightMb <= budget)
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import org.gradle.api.GradleException
+import org.gradle.api.logging.LogLevel
+import org.gradle.api.logging.Logger
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs protoc command lines and reports their output.
+ */
+@CompileStatic
+@PackageScope
+final class ProtocRunner {
+  private ProtocRunner() {
+    // do not instantiate
+  }
+
+  /**
+   * Returns the label used to tell apart the output of the batches of a task, e.g.,
+   * "protoc (batch 2 of 5)". A task with a single batch is labeled "protoc".
+   */
+  static String batchLabel(int batchIndex, int batchCount) {
+    return batchLabel("protoc", batchIndex, batchCount)
+  }
+
+  /**
+   * Like {@link #batchLabel(int, int)}, for the batches of the given label.
+   */
+  static String batchLabel(String label, int batchIndex, int batchCount) {
+    return batchCount > 1 ? "${label} (batch ${batchIndex + 1} of ${batchCount})".toString() : label
+  }
+
+  /**
+   * Like {@link #run(List, String, Logger)}, but first waits until {@code limiter} lets a
+   * process that starts {@code jvmProcesses} JVMs run. A null {@code limiter} does not
+   * limit anything. {@code batchIndex} is the index of the command among the batches of
+   * the task.
+   */
+  static void run(List<String> cmd, String label, int batchIndex, Logger logger, ProtocProcessLimiter limiter,
+      int jvmProcesses) {
+    if (limiter == null) {
+      runTimed(cmd, label, batchIndex, 0, logger)
+      return
+    }
+    long weightMb = limiter.weightMb(jvmProcesses)
+    long queued = System.nanoTime()
+    limiter.acquire(weightMb)
+    try {
+      runTimed(cmd, label, batchIndex, System.nanoTime() - queued, logger)
+    } finally {
+      limiter.release(weightMb)
+    }
+  }
+
+  /**
+   * Executes the given command and waits for it to finish. Fails with protoc's output if the
+   * command exits with an error.
+   */
+  static void run(List<String> cmd, String label, Logger logger) {
+    runTimed(cmd, label, 0, 0, logger)
+  }
+
+  private static void runTimed(List<String> cmd, String label, int batchIndex, long queueWaitNanos, Logger logger) {
+    logger.log(LogLevel.INFO, cmd.toString())
+
+    StringBuffer stdout = new StringBuffer()
+    StringBuffer stderr = new StringBuffer()
+    long start = System.nanoTime()
+    PluginEvents.Span span = PluginEvents.start("protoc", label)
+        .commandLength(cmd.sum(0) { String arg -> arg.length() + 1 } as long)
+        .batch(batchIndex)
+        .queueWaitMillis(TimeUnit.NANOSECONDS.toMillis(queueWaitNanos))
+    Process result
+    try {
+      result = cmd.execute()
+      // Only worth a thread per process when someone looks at the peak
+      PeakRssSampler sampler = PluginEvents.hasListeners() && PeakRssSampler.isSupported() ?
+          PeakRssSampler.start(result) : null
+      try {
+        result.waitForProcessOutput(stdout, stderr)
+      } finally {
+        long peakKb = sampler != null ? sampler.stop() : -1L
+        if (peakKb >= 0) {
+          span.peakRssKb(peakKb)
+        }
+      }
+      span.exitStatus(result.exitValue())
+    } finally {
+      span.end()
+    }
+    long millis = (long) ((System.nanoTime() - start) / 1000000)
+    String output = "${label} (${millis} ms): stdout: ${stdout}. stderr: ${stderr}"
+    if (result.exitValue() == 0) {
+      logger.log(LogLevel.INFO, output)
+    } else {
+      throw new GradleException(output)
+    }
+  }
+}
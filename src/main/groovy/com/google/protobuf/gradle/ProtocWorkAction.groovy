@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+
+/**
+ * Runs a share of the protoc batches of a {@link GenerateProtoTask} on a Gradle worker.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ProtocWorkAction implements WorkAction<Parameters> {
+  private static final Logger LOGGER = Logging.getLogger(ProtocWorkAction)
+
+  /**
+   * The commands to run, in order, and the label identifying each of them in protoc's output.
+   * Each command waits for the process limiter, if any, before it starts.
+   */
+  static interface Parameters extends WorkParameters {
+    ListProperty<List<String>> getCommands()
+
+    ListProperty<String> getLabels()
+
+    /** The index of each command among the batches of the task. */
+    ListProperty<Integer> getBatches()
+
+    /** The path of the task, to which the invocations are attributed. */
+    Property<String> getTaskPath()
+
+    /** The build services getting the phases of the task, if enabled. */
+    Property<ProtobufMetrics> getMetrics()
+
+    Property<ProtobufTrace> getTrace()
+
+    Property<ProtocProcessLimiter> getProcessLimiter()
+
+    Property<Integer> getJvmProcesses()
+  }
+
+  @Override
+  void execute() {
+    List<List<String>> commands = parameters.commands.get()
+    List<String> labels = parameters.labels.get()
+    ProtocProcessLimiter limiter = parameters.processLimiter.getOrNull()
+    List<Integer> batches = parameters.batches.get()
+    int jvmProcesses = parameters.jvmProcesses.get()
+    List<PluginEvents.Listener> listeners = PluginEvents.listeners(parameters.metrics, parameters.trace)
+    PluginEvents.inTask(parameters.taskPath.get(), listeners) {
+      for (int i = 0; i < commands.size(); i++) {
+        ProtocRunner.run(commands[i], labels[i], batches[i], LOGGER, limiter, jvmProcesses)
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.stream.Stream
+
+/**
+ * Publishes files that were generated into a staging directory to the real output
+ * directory, leaving the files whose content did not change untouched so that their
+ * timestamps are preserved for downstream incremental compilers and IDEs.
+ */
+@CompileStatic
+@PackageScope
+final class StagedOutputs {
+  private StagedOutputs() {
+    // do not instantiate
+  }
+
+  /**
+   * Returns the paths, relative to {@code dir} and separated by '/', of the regular
+   * files under {@code dir}, sorted.
+   */
+  static List<String> listFiles(File dir) {
+    List<String> files = []
+    if (!dir.isDirectory()) {
+      return files
+    }
+    Path root = dir.toPath()
+    Files.walk(root).withCloseable { Stream<Path> paths ->
+      // Links left by link() count too, even when their target is gone
+      paths.filter { Path file -> Files.isRegularFile(file) || Files.isSymbolicLink(file) }.forEach { Path file ->
+        files.add(root.relativize(file).toString().replace(File.separatorChar, '/' as char))
+      }
+    }
+    return files.sort()
+  }
+
+  /**
+   * Moves {@code staged} over {@code target} unless {@code target} already has the
+   * same content. Returns true if {@code target} was written.
+   */
+  static boolean publish(File staged, File target) throws IOException {
+    if (target.isFile() && sameContent(staged, target)) {
+      return false
+    }
+    GenerateProtoTask.mkdirsForFile(target)
+    Files.move(staged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    return true
+  }
+
+  /**
+   * Publishes every file under {@code stagingDir} to the same relative location under
+   * {@code outputDir}, and returns the relative paths of all of them.
+   */
+  static Result publishAll(File stagingDir, File outputDir) throws IOException {
+    Result result = new Result()
+    listFiles(stagingDir).each { String relativePath ->
+      if (publish(new File(stagingDir, relativePath), new File(outputDir, relativePath))) {
+        result.written++
+      }
+      result.files.add(relativePath)
+    }
+    return result
+  }
+
+  /**
+   * Deletes the files under {@code outputDir} whose relative path is not in
+   * {@code keep}, then the directories that were left empty. Returns the number of
+   * deleted files.
+   */
+  static int deleteStale(File outputDir, Collection<String> keep) throws IOException {
+    Set<String> kept = keep as Set<String>
+    int deleted = 0
+    listFiles(outputDir).each { String relativePath ->
+      if (!kept.contains(relativePath)) {
+        Files.delete(new File(outputDir, relativePath).toPath())
+        deleted++
+      }
+    }
+    deleteEmptyDirs(outputDir)
+    return deleted
+  }
+
+  /**
+   * Copies {@code source} to {@code target} unless {@code target} already has the same
+   * content. A {@code target} that is a link, to {@code source} or to any other file, e.g.,
+   * to a cache entry that was since evicted or changed, is replaced by a copy. Returns true
+   * if {@code target} was written.
+   */
+  static boolean copy(File source, File target) throws IOException {
+    boolean linked = isLink(source, target)
+    if (!linked && target.isFile() && sameContent(source, target)) {
+      return false
+    }
+    GenerateProtoTask.mkdirsForFile(target)
+    if (linked) {
+      // Copying onto a hard link to source does nothing, and onto another link writes through it
+      Files.delete(target.toPath())
+    }
+    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    return true
+  }
+
+  /**
+   * Makes {@code target} a hard link to {@code source}, or a symbolic link if the file
+   * system cannot hard link them, e.g., across devices, or a copy if it supports neither.
+   * Returns true if {@code target} was changed.
+   */
+  static boolean link(File source, File target) throws IOException {
+    return link(source, target, true)
+  }
+
+  /**
+   * Like {@link #link(File, File)}, but falls back to a copy rather than a symbolic link
+   * unless {@code symbolic} is true. A symbolic link dangles once its source is deleted,
+   * e.g., a cache entry that is evicted, while a hard link keeps the content.
+   */
+  static boolean link(File source, File target, boolean symbolic) throws IOException {
+    if (target.isFile() && Files.isSameFile(source.toPath(), target.toPath())) {
+      return false
+    }
+    GenerateProtoTask.mkdirsForFile(target)
+    Files.deleteIfExists(target.toPath())
+    try {
+      Files.createLink(target.toPath(), source.toPath())
+      return true
+    } catch (IOException | UnsupportedOperationException ignored) {
+      // Try a symbolic link
+    }
+    if (symbolic) {
+      try {
+        Files.createSymbolicLink(target.toPath(), source.absoluteFile.toPath())
+        return true
+      } catch (IOException | UnsupportedOperationException ignored) {
+        // Fall back to copying
+      }
+    }
+    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    return true
+  }
+
+  /**
+   * Deletes the directories under {@code outputDir} that are empty, or only hold empty
+   * directories.
+   */
+  static void deleteEmptyDirs(File outputDir) throws IOException {
+    if (!outputDir.isDirectory()) {
+      return
+    }
+    List<Path> dirs = []
+    Path root = outputDir.toPath()
+    Files.walk(root).withCloseable { Stream<Path> paths ->
+      paths.filter { Path dir -> dir != root && Files.isDirectory(dir) }.forEach { Path dir -> dirs.add(dir) }
+    }
+    // Deepest first, so that a directory is only looked at after its subdirectories
+    dirs.sort { Path dir -> -dir.nameCount }.each { Path dir ->
+      String[] children = dir.toFile().list()
+      if (children != null && children.length == 0) {
+        Files.delete(dir)
+      }
+    }
+  }
+
+  /**
+   * Returns true if {@code target} is a symbolic link, or shares its content with
+   * {@code source} or any other file through a hard link.
+   */
+  private static boolean isLink(File source, File target) throws IOException {
+    Path path = target.toPath()
+    if (Files.isSymbolicLink(path)) {
+      return true
+    }
+    if (!Files.isRegularFile(path)) {
+      return false
+    }
+    return Files.isSameFile(source.toPath(), path) || hardLinkCount(path) > 1
+  }
+
+  private static int hardLinkCount(Path file) throws IOException {
+    try {
+      return Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS) as int
+    } catch (UnsupportedOperationException | IllegalArgumentException ignored) {
+      // Not known, e.g., on Windows, where only links to the source are found
+      return 1
+    }
+  }
+
+  private static boolean sameContent(File a, File b) {
+    return a.length() == b.length() && Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()))
+  }
+
+  /**
+   * The outcome of {@link #publishAll}.
+   */
+  static class Result {
+    /** The relative paths of all the published files, whether they changed or not. */
+    final List<String> files = []
+    /** The number of files that were written because their content changed. */
+    int written
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileStatic
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.api.services.BuildServiceSpec
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A build service that stages the executables used by the {@link GenerateProtoTask}s of
+ * the build, i.e., the resolved protoc and plugin artifacts and the trampoline scripts
+ * of .jar plugins, at content addressed paths under the Gradle user home. Each distinct
+ * file is hashed and staged once per build, and staged files are made read-only and
+ * executable once, so that tasks and projects using the same tool share one copy
+ * instead of each setting permissions and writing scripts on every run.
+ *
+ * <p>Not for external use.
+ */
+@CompileStatic
+abstract class ToolRegistry implements BuildService<Parameters> {
+  static final String NAME = "protobufToolRegistry"
+  static final String CACHE_NAME = "tools"
+
+  private static final Logger LOGGER = Logging.getLogger(ToolRegistry)
+  // Staged entries that no build used in that long are deleted
+  private static final long MAX_UNUSED_MILLIS = TimeUnit.DAYS.toMillis(30)
+
+  // The staged path of each artifact, by path, size and modification time
+  private final Map<String, String> stagedArtifacts = new ConcurrentHashMap<>()
+  // The staged path of each trampoline, by name and content
+  private final Map<String, String> stagedScripts = new ConcurrentHashMap<>()
+  private final AtomicBoolean cleanedUp = new AtomicBoolean()
+
+  /**
+   * The settings of the service.
+   */
+  static interface Parameters extends BuildServiceParameters {
+    /** Where the staged files are, one directory per content hash. */
+    DirectoryProperty getCacheDir()
+  }
+
+  /**
+   * Registers the service for the build, unless a project already did, and returns it.
+   */
+  static Provider<ToolRegistry> register(Project project) {
+    return project.gradle.sharedServices.registerIfAbsent(NAME, ToolRegistry) {
+      BuildServiceSpec<Parameters> spec ->
+      spec.parameters.cacheDir.set(Utils.getSharedCacheDir(project.gradle.gradleUserHomeDir, CACHE_NAME))
+    }
+  }
+
+  /**
+   * Returns the path of the staged, executable copy of a resolved artifact.
+   */
+  String stageArtifact(File artifact) {
+    String key = "${artifact.absolutePath}:${artifact.length()}:${artifact.lastModified()}"
+    return stagedArtifacts.computeIfAbsent(key) { String ignored ->
+      return stage(Utils.sha256(artifact), artifact.name) { File target ->
+        Files.copy(artifact.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+      }
+    }
+  }
+
+  /**
+   * Returns the path of the staged, executable script with the given file name and content.
+   */
+  String stageScript(String fileName, String content, String charset) {
+    return stagedScripts.computeIfAbsent("${fileName}\n${content}".toString()) { String key ->
+      return stage(key.digest("SHA-256"), fileName) { File target ->
+        target.setText(content, charset)
+      }
+    }
+  }
+
+  private String stage(String hash, String fileName, Closure<?> write) {
+    File cacheDir = parameters.cacheDir.get().asFile
+    if (cleanedUp.compareAndSet(false, true)) {
+      Utils.deleteUnused(cacheDir, MAX_UNUSED_MILLIS)
+    }
+    File entryDir = new File(cacheDir, hash)
+    File staged = new File(entryDir, fileName)
+    if (staged.isFile()) {
+      // Marks the entry as used, once per build
+      entryDir.setLastModified(System.currentTimeMillis())
+      return staged.path
+    }
+    entryDir.mkdirs()
+    // Other builds may stage the same file at the same time, write it aside and move it in place
+    File temp = new File(entryDir, "${fileName}.${UUID.randomUUID()}.tmp")
+    try {
+      write.call(temp)
+      if (!temp.setExecutable(true) || !temp.setWritable(false)) {
+        throw new GradleException("Cannot make ${temp} executable and read-only")
+      }
+      Files.move(temp.toPath(), staged.toPath(), StandardCopyOption.ATOMIC_MOVE)
+    } catch (IOException e) {
+      // Fine if another build staged it first and this file system does not replace it
+      if (!staged.isFile()) {
+        throw new GradleException("Unable to stage ${fileName} under ${entryDir}", e)
+      }
+    } finally {
+      temp.delete()
+    }
+    LOGGER.info("Staged ${fileName} at ${staged}")
+    return staged.path
+  }
+}
@@ -33,6 +33,7 @@ import groovy.transform.CompileStatic
 import org.gradle.api.NamedDomainObjectContainer
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Configuration
+import org.gradle.api.model.ObjectFactory
 
 /**
  * Holds locations of all external executables, i.e., protoc and plugins.
@@ -63,9 +64,9 @@ class ToolsLocator {
     return [group, name, version, classifier, extension]
   }
 
-  ToolsLocator(Project project) {
+  ToolsLocator(ObjectFactory objects) {
     protoc = new ExecutableLocator('protoc')
-    plugins = project.container(ExecutableLocator)
+    plugins = objects.domainObjectContainer(ExecutableLocator)
   }
 
   /**
@@ -31,17 +31,23 @@ package com.google.protobuf.gradle
 import groovy.transform.CompileStatic
 import org.gradle.api.Project
 import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.plugins.PluginContainer
 import org.gradle.api.tasks.SourceSet
-import org.gradle.plugins.ide.idea.GenerateIdeaModule
 import org.gradle.plugins.ide.idea.model.IdeaModel
 import org.gradle.util.GradleVersion
 
+import java.security.MessageDigest
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
 /**
  * Utility classes.
  */
 @CompileStatic
 class Utils {
   private static final GradleVersion GRADLE_7_4 = GradleVersion.version("7.4")
+  private static final int DIGEST_BUFFER_SIZE = 64 * 1024
+  private static final Pattern JAVA_VERSION_PATTERN = Pattern.compile(/(?m)^JAVA_VERSION="(?:1\.)?(\d+)/)
 
   /**
    * Returns the conventional name of a configuration for a sourceSet
@@ -76,11 +82,15 @@ class Utils {
    * Detects if an android plugin has been applied to the project
    */
   static boolean isAndroidProject(Project project) {
+    return isAndroidProject(project.plugins)
+  }
+
+  static boolean isAndroidProject(PluginContainer plugins) {
     // Projects are marked with com.android.base plugin from version 3.0.0 up
     // OR fall back to a list of plugin id's to support versions prior to 3.0.0
-    return project.plugins.hasPlugin(ANDROID_BASE_PLUGIN_ID) ||
+    return plugins.hasPlugin(ANDROID_BASE_PLUGIN_ID) ||
         ANDROID_PLUGIN_IDS.any { String pluginId ->
-          project.plugins.hasPlugin(pluginId)
+          plugins.hasPlugin(pluginId)
         }
   }
 
@@ -124,14 +134,10 @@ class Utils {
       if (isGenerated) {
         model.module.generatedSourceDirs += f
       }
-      project.tasks.withType(GenerateIdeaModule).each { GenerateIdeaModule task ->
-        task.doFirst {
-          // This is required because the intellij plugin does not allow adding source directories
-          // that do not exist. The intellij config files should be valid from the start even if a
-          // user runs './gradlew idea' before running './gradlew generateProto'.
-          f.mkdirs()
-        }
-      }
+      // This is required because the intellij plugin does not allow adding source directories
+      // that do not exist. The intellij config files should be valid from the start even if a
+      // user runs './gradlew idea' before running './gradlew generateProto'.
+      f.mkdirs()
     }
   }
 
@@ -142,4 +148,57 @@ class Utils {
   static boolean isWindows() {
     return isWindows(System.getProperty("os.name"))
   }
+
+  /**
+   * Returns the directory under the Gradle user home where the plugin keeps data that
+   * is shared by builds, e.g., "~/.gradle/caches/protobuf-gradle-plugin/{@code name}".
+   */
+  static File getSharedCacheDir(File gradleUserHome, String name) {
+    return new File(gradleUserHome, "caches/protobuf-gradle-plugin/${name}")
+  }
+
+  /**
+   * Deletes the entries of a shared cache directory that were not modified, i.e., used,
+   * for {@code maxUnusedMillis}.
+   */
+  static void deleteUnused(File cacheDir, long maxUnusedMillis) {
+    long now = System.currentTimeMillis()
+    cacheDir.listFiles()?.each { File entry ->
+      if (now - entry.lastModified() > maxUnusedMillis) {
+        entry.isDirectory() ? entry.deleteDir() : entry.delete()
+      }
+    }
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 digest of the content of the file.
+   */
+  static String sha256(File file) throws IOException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256")
+    file.withInputStream { InputStream input ->
+      byte[] buffer = new byte[DIGEST_BUFFER_SIZE]
+      int read
+      while ((read = input.read(buffer)) > 0) {
+        digest.update(buffer, 0, read)
+      }
+    }
+    return digest.digest().encodeHex().toString()
+  }
+
+  /**
+   * Returns the feature version of the JVM of a java executable, e.g., 8 or 17, read
+   * from the release file of its Java home, or -1 if it is unknown.
+   */
+  static int javaFeatureVersion(String javaExe) {
+    File home = new File(javaExe).canonicalFile.parentFile?.parentFile
+    // The java of a JDK 8 may be the one of its jre directory
+    for (File dir : [home, home?.parentFile]) {
+      File release = dir == null ? null : new File(dir, "release")
+      if (release != null && release.isFile()) {
+        Matcher matcher = JAVA_VERSION_PATTERN.matcher(release.getText("UTF-8"))
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1
+      }
+    }
+    return -1
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+
+/**
+ * Tests for ClassDataSharing
+ */
+@CompileDynamic
+class ClassDataSharingSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  void 'test: the archive changes with the jar content and the java executable'() {
+    given:
+    File cacheDir = new File(tempDir, "cds")
+    File jar = new File(tempDir, "protoc-gen-foo.jar")
+    jar.text = "v1"
+    File java = new File(tempDir, "jdk/bin/java")
+    java.parentFile.mkdirs()
+    java.text = ""
+    File otherJava = new File(tempDir, "other-jdk/bin/java")
+    otherJava.parentFile.mkdirs()
+    otherJava.text = ""
+
+    when:
+    File archive = ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), java.path)
+
+    then:
+    archive.parentFile == cacheDir
+    archive.name.startsWith("protoc-gen-foo-")
+    archive.name.endsWith(".jsa")
+    archive == ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), java.path)
+    archive != ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), otherJava.path)
+
+    when:
+    new File(tempDir, "jdk/release").text = 'JAVA_VERSION="17.0.9"'
+    File newJavaArchive = ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), java.path)
+    jar.text = "v2"
+
+    then:
+    newJavaArchive != archive
+    ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), java.path) != newJavaArchive
+  }
+
+  void 'test: jars are hashed once per build, and unused archives deleted when it finishes'() {
+    given:
+    File cacheDir = new File(tempDir, "cds")
+    cacheDir.mkdirs()
+    File unused = new File(cacheDir, "protoc-gen-old-0123456789abcdef.jsa")
+    unused.text = ""
+    unused.lastModified = System.currentTimeMillis() - 60L * 24 * 3600 * 1000
+    File jar = new File(tempDir, "protoc-gen-foo.jar")
+    jar.text = "v1"
+    long lastModified = jar.lastModified()
+    File java = new File(tempDir, "jdk/bin/java")
+    java.parentFile.mkdirs()
+    java.text = ""
+    ClassDataSharing classDataSharing = serviceOfNewBuild(cacheDir)
+
+    when:
+    File archive = classDataSharing.archiveFor(jar, java.path)
+
+    then:
+    archive == ClassDataSharing.archiveFor(cacheDir, jar.name, Utils.sha256(jar), java.path)
+    unused.exists()
+
+    when: "the jar is rewritten with the same size and modification time"
+    jar.text = "v2"
+    jar.lastModified = lastModified
+
+    then: "the build does not hash it again"
+    classDataSharing.archiveFor(jar, java.path) == archive
+
+    when:
+    classDataSharing.close()
+
+    then:
+    !unused.exists()
+  }
+
+  void 'test: only Java 13+ is supported'() {
+    given:
+    File java = new File(tempDir, "jdk/bin/java")
+    java.parentFile.mkdirs()
+    java.text = ""
+    File jre8Java = new File(tempDir, "jdk8/jre/bin/java")
+    jre8Java.parentFile.mkdirs()
+    jre8Java.text = ""
+    new File(tempDir, "jdk8/release").text = 'JAVA_VERSION="1.8.0_392"\n'
+
+    expect: "an unknown version is not supported"
+    !ClassDataSharing.isSupported(java.path)
+    !ClassDataSharing.isSupported(jre8Java.path)
+
+    when:
+    new File(tempDir, "jdk/release").text = 'IMPLEMENTOR="Eclipse Adoptium"\nJAVA_VERSION="17.0.9"\n'
+
+    then:
+    ClassDataSharing.isSupported(java.path)
+  }
+
+  void 'test: the trampoline uses the archive once it exists'() {
+    when:
+    String script = ClassDataSharing.trampoline("/jdk/bin/java", "/libs/plugin.jar", new File("/cache/plugin.jsa"))
+
+    then:
+    script.contains("archive='/cache/plugin.jsa'")
+    script.contains("-XX:SharedArchiveFile=\"\$archive\" -jar '/libs/plugin.jar'")
+    script.contains("-XX:ArchiveClassesAtExit=\"\$archive.\$\$.tmp\" -jar '/libs/plugin.jar'")
+    script.contains("-Xlog:all=warning:stderr")
+  }
+
+  private static ClassDataSharing serviceOfNewBuild(File cacheDir) {
+    Project project = ProjectBuilder.builder().build()
+    return project.gradle.sharedServices.registerIfAbsent(ClassDataSharing.NAME, ClassDataSharing) { spec ->
+      spec.parameters.cacheDir.set(cacheDir)
+    }.get()
+  }
+}
@@ -29,6 +29,10 @@
 package com.google.protobuf.gradle
 
 import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.plugins.ide.idea.GenerateIdeaModule
+import org.gradle.plugins.ide.idea.model.IdeaModel
+import org.gradle.testfixtures.ProjectBuilder
 import org.gradle.testkit.runner.BuildResult
 import org.gradle.testkit.runner.GradleRunner
 import org.gradle.testkit.runner.TaskOutcome
@@ -162,8 +166,52 @@ class IDESupportTest extends Specification {
       'build/generated/sources/proto/test/java',
     ]
     assert Objects.equals(expectedSourceDir, sourceDir)
+    expectedSourceDir.each { String path ->
+      assert new File(projectDir, path).isDirectory()
+    }
 
     where:
     gradleVersion << GRADLE_VERSIONS
   }
+
+  void "the IDEA model has the proto directories without running an idea task"() {
+    given: "a project with java, idea and com.google.protobuf"
+    Project project = ProjectBuilder.builder().build()
+    project.apply plugin: 'java'
+    project.apply plugin: 'idea'
+    project.apply plugin: 'com.google.protobuf'
+    List<String> ideaTasks = []
+    project.tasks.withType(GenerateIdeaModule).configureEach { ideaTasks.add(it.name) }
+
+    when: "project evaluated, as for a Tooling API client reading the IDEA model"
+    project.evaluate()
+
+    then: "the source directories are in the model and exist"
+    IdeaModel model = project.extensions.getByType(IdeaModel)
+    List<File> expectedSourceDirs = [
+      project.file('src/main/proto'),
+      project.file('build/extracted-protos/main'),
+      project.file('build/extracted-include-protos/main'),
+      project.file('build/generated/sources/proto/main/java'),
+    ]
+    assert model.module.sourceDirs.containsAll(expectedSourceDirs)
+    assert model.module.generatedSourceDirs.containsAll(expectedSourceDirs.drop(1))
+    assert expectedSourceDirs.drop(1).every { File dir -> dir.isDirectory() }
+    assert ideaTasks.empty
+  }
+
+  void "the generated source directories exist for the Eclipse classpath"() {
+    given: "a project with java, eclipse and com.google.protobuf"
+    Project project = ProjectBuilder.builder().build()
+    project.apply plugin: 'java'
+    project.apply plugin: 'eclipse'
+    project.apply plugin: 'com.google.protobuf'
+
+    when: "project evaluated"
+    project.evaluate()
+
+    then: "the Eclipse classpath, which skips missing directories, can list them"
+    assert project.file('build/generated/sources/proto/main/java').isDirectory()
+    assert project.file('build/generated/sources/proto/test/java').isDirectory()
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import spock.lang.Specification
+import spock.lang.TempDir
+
+/**
+ * Tests for IncrementalGenerationState
+ */
+@CompileDynamic
+class IncrementalGenerationStateSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  void 'test: imports are parsed, including public and weak imports'() {
+    given:
+    File proto = new File(tempDir, "foo.proto")
+    proto.text = '''
+      syntax = "proto3";
+      import "a/b.proto";
+      import public "c.proto";
+        import weak "d.proto" ;
+      // import "commented.proto";
+      message Foo {}
+    '''
+
+    expect:
+    ['a/b.proto', 'c.proto', 'd.proto'] == IncrementalGenerationState.parseImports(proto)
+  }
+
+  void 'test: dependents are found transitively, through include protos too'() {
+    given:
+    IncrementalGenerationState state = new IncrementalGenerationState()
+    state.imports['a.proto'] = ['b.proto']
+    state.imports['b.proto'] = ['c.proto']
+    state.imports['x.proto'] = ['inc/y.proto']
+    state.imports['unrelated.proto'] = []
+
+    expect:
+    ['a.proto', 'b.proto'] as Set == state.dependentsOf(['c.proto'], [:])
+    ['x.proto'] as Set == state.dependentsOf(['inc/z.proto'], ['inc/y.proto': ['inc/z.proto']])
+    state.dependentsOf(['a.proto'], [:]).isEmpty()
+  }
+
+  void 'test: protos generated in one batch are regenerated together'() {
+    given:
+    IncrementalGenerationState state = new IncrementalGenerationState()
+    state.recordOutputs(['a.proto', 'b.proto'], ['java/A.java', 'java/B.java'])
+    state.recordOutputs(['c.proto'], ['java/C.java'])
+
+    expect:
+    ['a.proto', 'b.proto'] as Set == state.withBatchMembers(['b.proto'])
+    ['c.proto'] as Set == state.withBatchMembers(['c.proto'])
+    state.remove('a.proto') == ['java/A.java', 'java/B.java']
+    state.remove('c.proto') == ['java/C.java']
+  }
+
+  void 'test: state is written and read back'() {
+    given:
+    File file = new File(tempDir, "state/${IncrementalGenerationState.FILE_NAME}")
+    IncrementalGenerationState state = new IncrementalGenerationState()
+    state.imports['a.proto'] = ['b.proto']
+    state.outputs['a.proto'] = ['java/A.java']
+    state.recordOutputs(['b.proto', 'c.proto'], ['java/B.java', 'java/C.java'])
+
+    when:
+    state.write(file)
+    IncrementalGenerationState read = IncrementalGenerationState.read(file)
+
+    then:
+    read.imports == state.imports
+    read.outputs == state.outputs
+    read.batches == state.batches
+    read.remove('a.proto') == ['java/A.java']
+    IncrementalGenerationState.read(new File(tempDir, "missing.json")) == null
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+/**
+ * Tests for OutputReuseRegistry
+ */
+@CompileDynamic
+class OutputReuseRegistrySpec extends Specification {
+  void 'test: tasks reuse the outputs of a finished task with the same inputs'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    OutputReuseRegistry registry = OutputReuseRegistry.register(project).get()
+    File dir = project.file("generated")
+    File proto = project.file("a.proto")
+    File copy = project.file("copy/a.proto")
+    File other = project.file("other/a.proto")
+    proto.text = "syntax = 'proto3';"
+    copy.parentFile.mkdirs()
+    copy.text = proto.text
+    other.parentFile.mkdirs()
+    other.text = proto.text.reverse()
+
+    when: "two tasks with the same inputs claim them before either produced its outputs"
+    OutputReuseRegistry.Claim first = registry.claim("shape", [proto])
+    OutputReuseRegistry.Claim concurrent = registry.claim("shape", [copy])
+
+    then: "neither waits, both produce their outputs"
+    first.producedDir == null
+    concurrent.producedDir == null
+
+    when:
+    registry.produced(first, dir)
+
+    then: "later tasks with the same shape and content reuse them"
+    registry.claim("shape", [copy]).producedDir == dir
+    registry.claim("shape", [other]).producedDir == null
+    registry.claim("other shape", [proto]).producedDir == null
+  }
+
+  void 'test: the content of the inputs is only hashed when a task of the same shape produced outputs'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    OutputReuseRegistry registry = OutputReuseRegistry.register(project).get()
+    File missing = project.file("missing.proto")
+
+    when: "the inputs can't be hashed, but there is nothing to compare them with"
+    OutputReuseRegistry.Claim claim = registry.claim("shape", [missing])
+    registry.claim("shape", [missing])
+
+    then:
+    claim.producedDir == null
+    noExceptionThrown()
+  }
+
+  void 'test: the outputs of a failed task are not reused'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    OutputReuseRegistry registry = OutputReuseRegistry.register(project).get()
+    File proto = project.file("a.proto")
+    proto.text = "syntax = 'proto3';"
+
+    when:
+    OutputReuseRegistry.Claim failed = registry.claim("shape", [proto])
+    registry.failed(failed)
+
+    then:
+    registry.claim("shape", [proto]).producedDir == null
+  }
+}
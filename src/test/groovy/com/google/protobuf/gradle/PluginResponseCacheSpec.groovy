@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+import spock.lang.TempDir
+
+/**
+ * Tests for PluginResponseCache
+ */
+@CompileDynamic
+class PluginResponseCacheSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  @IgnoreIf({ Utils.isWindows() })
+  void 'test: the shim replays the response to a request it has seen'() {
+    given:
+    File cacheDir = new File(tempDir, "responses")
+    File runs = new File(tempDir, "runs")
+    File plugin = new File(tempDir, "protoc-gen-upper")
+    plugin.text = "#!/bin/sh\necho run >> '${runs}'\ntr a-z A-Z\n"
+    plugin.setExecutable(true)
+    File shim = new File(tempDir, "shim.sh")
+    shim.text = PluginResponseCache.shim(cacheDir, plugin.path, PluginResponseCache.pluginKey(plugin))
+    shim.setExecutable(true)
+
+    expect:
+    run(shim, "foo") == "FOO\n"
+    run(shim, "foo") == "FOO\n"
+    run(shim, "bar") == "BAR\n"
+    runs.readLines().size() == 2
+    cacheDir.list().length == 2
+  }
+
+  void 'test: trim deletes the least recently used responses'() {
+    given:
+    File cacheDir = new File(tempDir, "responses")
+    cacheDir.mkdirs()
+    long old = System.currentTimeMillis() - 7L * 24 * 3600 * 1000
+    File oldest = response(cacheDir, "oldest", old)
+    File older = response(cacheDir, "older", old + 1000)
+    File recent = response(cacheDir, "recent", System.currentTimeMillis())
+
+    when:
+    PluginResponseCache.trim(cacheDir, 20)
+
+    then:
+    !oldest.exists()
+    older.exists()
+    recent.exists()
+
+    when: "the responses used in the last hour exceed the maximum size"
+    PluginResponseCache.trim(cacheDir, 0)
+
+    then:
+    !older.exists()
+    recent.exists()
+  }
+
+  void 'test: the cache is trimmed once, when a build that used it finishes'() {
+    given:
+    File cacheDir = new File(tempDir, "responses")
+    cacheDir.mkdirs()
+    File old = response(cacheDir, "old", System.currentTimeMillis() - 7L * 24 * 3600 * 1000)
+    PluginResponseCache unused = cacheOfNewBuild(cacheDir)
+    PluginResponseCache used = cacheOfNewBuild(cacheDir)
+
+    when: "a build that did not use the cache finishes"
+    unused.close()
+
+    then:
+    old.exists()
+
+    when: "a build that used the cache finishes"
+    File usedDir = used.use()
+
+    then: "it is only trimmed when the build finishes"
+    usedDir == cacheDir
+    old.exists()
+
+    when:
+    used.close()
+
+    then:
+    !old.exists()
+  }
+
+  private static PluginResponseCache cacheOfNewBuild(File cacheDir) {
+    Project project = ProjectBuilder.builder().build()
+    return project.gradle.sharedServices.registerIfAbsent(PluginResponseCache.NAME, PluginResponseCache) { spec ->
+      spec.parameters.cacheDir.set(cacheDir)
+      spec.parameters.maxSizeMb.set(0L)
+    }.get()
+  }
+
+  private static String run(File shim, String request) {
+    Process process = [shim.path].execute()
+    process.outputStream.withCloseable { OutputStream output -> output.write(request.bytes) }
+    String response = process.inputStream.text
+    assert process.waitFor() == 0
+    return response
+  }
+
+  private static File response(File cacheDir, String name, long lastModified) {
+    File file = new File(cacheDir, name)
+    file.text = "0123456789"
+    file.lastModified = lastModified
+    return file
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonSlurper
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Tests for ProtoExtractionCache
+ */
+@CompileDynamic
+class ProtoExtractionCacheSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  void 'test: only proto files are extracted, and only from the jars of an aar'() {
+    given:
+    File jar = new File(tempDir, "lib.jar")
+    writeZip(jar, ['a/foo.proto': 'foo', 'a/Foo.class': 'class'])
+    File aar = new File(tempDir, "lib.aar")
+    writeZip(aar, ['classes.jar': zipBytes(['b/bar.proto': 'bar']), 'c/baz.proto': 'baz'])
+    File jarDir = new File(tempDir, "jar")
+    File aarDir = new File(tempDir, "aar")
+
+    when:
+    long jarSize = ProtoExtractionCache.extractProtos(jar, jarDir)
+    ProtoExtractionCache.extractProtos(aar, aarDir)
+
+    then:
+    jarSize == 3
+    new File(jarDir, "a/foo.proto").text == "foo"
+    !new File(jarDir, "a/Foo.class").exists()
+    new File(aarDir, "b/bar.proto").text == "bar"
+    // Like the extraction without the cache, which only looks into the jars of an aar
+    !new File(aarDir, "c/baz.proto").exists()
+    ProtoExtractionCache.listProtos(aar) as List == ['b/bar.proto']
+  }
+
+  void 'test: entries outside of the archive are rejected'() {
+    given:
+    File zip = new File(tempDir, "evil.zip")
+    writeZip(zip, ['../evil.proto': 'evil'])
+
+    when:
+    ProtoExtractionCache.extractProtos(zip, new File(tempDir, "out"))
+
+    then:
+    thrown(IOException)
+    !new File(tempDir, "evil.proto").exists()
+  }
+
+  void 'test: archives with the same content share an entry'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    ProtoExtractionCache cache = ProtoExtractionCache.register(project).get()
+    File first = new File(tempDir, "first.jar")
+    File second = new File(tempDir, "second.jar")
+    writeZip(first, ['a/foo.proto': 'foo'])
+    second.bytes = first.bytes
+
+    when:
+    File entry = cache.protosOf(first)
+
+    then:
+    entry == cache.protosOf(second)
+    entry.name == Utils.sha256(first)
+    new File(entry, "a/foo.proto").text == "foo"
+  }
+
+  void 'test: several archives are extracted at once, in order'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    ProtoExtractionCache cache = ProtoExtractionCache.register(project).get()
+    List<File> archives = (0..<10).collect { int i ->
+      File archive = new File(tempDir, "lib${i}.${i % 2 == 0 ? 'jar' : 'aar'}")
+      if (i % 2 == 0) {
+        writeZip(archive, [("p${i}/foo.proto".toString()): "foo${i}"])
+      } else {
+        writeZip(archive, ['classes.jar': zipBytes([("p${i}/foo.proto".toString()): "foo${i}"])])
+      }
+      return archive
+    }
+
+    when:
+    Map<File, File> dirs = cache.protosOf(archives)
+
+    then:
+    dirs.keySet() as List == archives
+    archives.eachWithIndex { File archive, int i ->
+      assert new File(dirs.get(archive), "p${i}/foo.proto").text == "foo${i}"
+      assert dirs.get(archive) == cache.protosOf(archive)
+    }
+  }
+
+  void 'test: archives without proto files are indexed, not extracted'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    ProtoExtractionCache cache = ProtoExtractionCache.register(project).get()
+    File cacheDir = cache.parameters.cacheDir.get().asFile
+    File classes = new File(tempDir, "classes.jar")
+    File protos = new File(tempDir, "protos.aar")
+    writeZip(classes, ['a/Foo.class': 'class'])
+    writeZip(protos, ['classes.jar': zipBytes(['b/bar.proto': 'bar'])])
+
+    expect:
+    ProtoExtractionCache.listProtos(classes).isEmpty()
+    ProtoExtractionCache.listProtos(protos) as List == ['b/bar.proto']
+
+    when:
+    File none = cache.protosOf(classes)
+    File entry = cache.protosOf(protos)
+    cache.close()
+    Map<String, Object> index = new JsonSlurper().parse(new File(cacheDir, ProtoExtractionCache.INDEX_FILE))
+
+    then:
+    none == null
+    new File(entry, "b/bar.proto").text == "bar"
+    index.archives[classes.absolutePath].protos == []
+    index.archives[protos.absolutePath].protos == ['b/bar.proto']
+    index.archives[classes.absolutePath].sha256 == null
+    index.archives[protos.absolutePath].sha256 == entry.name
+  }
+
+  void 'test: linked protos outlive the eviction of their entry'() {
+    given: "a build that linked the protos of an entry, without symbolic links"
+    File cacheDir = new File(tempDir, "cache")
+    File jar = new File(tempDir, "lib.jar")
+    writeZip(jar, ['a/foo.proto': 'foo'])
+    File entry = cacheOfNewBuild(cacheDir, 1).protosOf(jar)
+    File target = new File(tempDir, "dest/a/foo.proto")
+    StagedOutputs.link(new File(entry, "a/foo.proto"), target, false)
+    entry.lastModified = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)
+
+    when: "a later build evicts the entry to make room for a larger archive"
+    File large = new File(tempDir, "large.jar")
+    writeZip(large, ['b/bar.proto': 'bar' * 1024 * 1024])
+    cacheOfNewBuild(cacheDir, 1).protosOf(large)
+
+    then: "the linked proto is still there, with its content"
+    !entry.exists()
+    !Files.isSymbolicLink(target.toPath())
+    target.text == "foo"
+  }
+
+  private static ProtoExtractionCache cacheOfNewBuild(File cacheDir, long maxSizeMb) {
+    Project project = ProjectBuilder.builder().build()
+    return project.gradle.sharedServices.registerIfAbsent(ProtoExtractionCache.NAME, ProtoExtractionCache) { spec ->
+      spec.parameters.cacheDir.set(cacheDir)
+      spec.parameters.maxSizeMb.set(maxSizeMb)
+    }.get()
+  }
+
+  private static void writeZip(File file, Map<String, Object> entries) {
+    file.bytes = zipBytes(entries)
+  }
+
+  private static byte[] zipBytes(Map<String, Object> entries) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+    new ZipOutputStream(bytes).withCloseable { ZipOutputStream zip ->
+      entries.each { String name, Object content ->
+        zip.putNextEntry(new ZipEntry(name))
+        zip.write(content instanceof byte[] ? content : content.toString().bytes)
+        zip.closeEntry()
+      }
+    }
+    return bytes.toByteArray()
+  }
+}
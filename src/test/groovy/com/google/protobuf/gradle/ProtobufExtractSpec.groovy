@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Tests for the classification of the inputs of ProtobufExtract
+ */
+@CompileDynamic
+class ProtobufExtractSpec extends Specification {
+  @Unroll
+  void 'test: #path is a #expected input'() {
+    expect:
+    ProtobufExtract.inputTypeOf(path) == expected
+
+    where:
+    path                     | expected
+    'lib/foo.proto'          | ProtobufExtract.InputType.PROTO
+    'lib/foo.jar'            | ProtobufExtract.InputType.ZIP
+    'lib/foo.zip'            | ProtobufExtract.InputType.ZIP
+    'lib/foo.aar'            | ProtobufExtract.InputType.AAR
+    'lib/foo.tar'            | ProtobufExtract.InputType.TAR
+    'lib/foo.tar.gz'         | ProtobufExtract.InputType.TAR
+    'lib/foo.tar.bz2'        | ProtobufExtract.InputType.TAR
+    'lib/foo.tgz'            | ProtobufExtract.InputType.TAR
+    'lib/foo.txt'            | ProtobufExtract.InputType.UNSUPPORTED
+    'lib/foo.gz'             | ProtobufExtract.InputType.UNSUPPORTED
+    'lib/foo.proto.bak'      | ProtobufExtract.InputType.UNSUPPORTED
+  }
+}
@@ -1,14 +1,22 @@
 package com.google.protobuf.gradle
 
+import groovy.json.JsonSlurper
 import groovy.transform.CompileDynamic
 import org.gradle.api.Project
 import org.gradle.testfixtures.ProjectBuilder
 import org.gradle.testkit.runner.BuildResult
 import org.gradle.testkit.runner.GradleRunner
 import org.gradle.testkit.runner.TaskOutcome
+import spock.lang.IgnoreIf
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.regex.Matcher
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
 /**
  * Unit tests for normal java and kotlin functionality.
  */
@@ -37,6 +45,20 @@ class ProtobufJavaPluginTest extends Specification {
     assert project.tasks.extractTestProto instanceof ProtobufExtract
   }
 
+  void "testApplying com.google.protobuf does not realize the plugin tasks"() {
+    given: "a basic project with java and com.google.protobuf"
+    Project project = setupBasicProject()
+    List<String> realized = []
+    project.tasks.withType(GenerateProtoTask).configureEach { realized.add(it.name) }
+    project.tasks.withType(ProtobufExtract).configureEach { realized.add(it.name) }
+
+    when: "project evaluated"
+    project.evaluate()
+
+    then: "no generate or extract task is created until it is needed"
+    assert realized.empty
+  }
+
   void "test generate proto task sources should include only *.proto files"() {
     given: "a project with readme file in proto source directory"
     Project project = setupBasicProject()
@@ -169,6 +191,297 @@ class ProtobufJavaPluginTest extends Specification {
     gradleVersion << GRADLE_VERSIONS.takeRight(1)
   }
 
+  @Unroll
+  void "testProjectJavaLibrary should be successfully executed (isolated projects) [gradle #gradleVersion]"() {
+    given: "project from testProjectJavaLibrary"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectJavaLibrary')
+      .copyDirs('testProjectBase', 'testProjectJavaLibrary')
+      .build()
+
+    and:
+    // Problems of the test build itself are only reported, those of the plugin are checked below
+    GradleRunner runner = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "build",
+      "-Dorg.gradle.unsafe.isolated-projects=true",
+      "--configuration-cache-problems=warn",
+    )
+
+    when: "build is invoked"
+    BuildResult result = runner.build()
+
+    then: "it succeeds without problems in the plugin"
+    result.task(":build").outcome == TaskOutcome.SUCCESS
+    // Gradle lists each problem as "- Plugin 'com.google.protobuf': ..."
+    !result.output.toLowerCase(Locale.ROOT).contains("plugin 'com.google.protobuf'")
+    ProtobufPluginTestHelper.verifyProjectDir(projectDir)
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc runs the batches of protoc in parallel [gradle #gradleVersion]"() {
+    given: "a project with protos that need several batches, run in two lanes"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    // Long paths, so that the command line of all the protos exceeds the length limit
+    File protoDir = new File(projectDir, "src/main/proto/com/example/batches/${'d' * 200}")
+    protoDir.mkdirs()
+    500.times { int i ->
+      new File(protoDir, String.format("msg_%04d.proto", i)) << "syntax = \"proto3\";\n"
+    }
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.maxParallelInvocations = 2
+      |}
+      |""".stripMargin()
+
+    when: "generateProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the protos are generated in several batches"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains("protoc (batch 1 of ")
+    result.output.contains("protoc (batch 2 of ")
+    File outputDir = new File(projectDir, "build/generated/sources/proto/main")
+    new File(outputDir, "java/com/example/batches/${'d' * 200}").list().length == 500
+    new File(outputDir, "fake/com/example/batches/${'d' * 200}").list().length == 500
+
+    when: "the plugin fails on a proto of a later batch"
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.plugins {
+      |    fake {
+      |      option 'failOn=msg_0480'
+      |    }
+      |  }
+      |}
+      |""".stripMargin()
+    result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).buildAndFail()
+
+    then: "the task fails with the output of the failed batch"
+    result.task(":generateProto").outcome == TaskOutcome.FAILED
+    result.output.contains("msg_0480.proto: Simulated failure.")
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  @IgnoreIf({ Utils.isWindows() || Runtime.version().feature() >= 24 })
+  void "testProjectFakeProtoc runs .jar plugins on the plugin host from concurrent tasks [gradle #gradleVersion]"() {
+    given: "a project whose main and test protos need several batches, run in two lanes on the host"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    String batchDir = "com/example/batches/${'d' * 200}"
+    ['main', 'test'].each { String sourceSet ->
+      File protoDir = new File(projectDir, "src/${sourceSet}/proto/${batchDir}")
+      protoDir.mkdirs()
+      300.times { int i ->
+        new File(protoDir, String.format("${sourceSet}_%04d.proto", i)) << "syntax = \"proto3\";\n"
+      }
+    }
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.usePluginHost = true
+      |  task.maxParallelInvocations = 2
+      |  task.plugins {
+      |    fake {
+      |      option 'reportJvm=true'
+      |    }
+      |  }
+      |}
+      |""".stripMargin()
+
+    when: "both generate tasks are invoked, in parallel thanks to the configuration cache"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "generateTestProto",
+      "--configuration-cache",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "both tasks succeed in several batches"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.task(":generateTestProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains("protoc (batch 2 of ")
+    result.output.contains("Started protobuf plugin host")
+
+    and: "every file has the response to its own proto, all from the same host JVM"
+    Set<String> jvms = [] as Set
+    ['main', 'test'].each { String sourceSet ->
+      File fakeDir = new File(projectDir, "build/generated/sources/proto/${sourceSet}/fake/${batchDir}")
+      assert fakeDir.list().length == 300
+      fakeDir.eachFile { File file ->
+        String proto = "${batchDir}/${file.name - '_fake.java'}.proto"
+        Matcher matcher = file.text =~ /^\/\/ Generated by fake plugin from (\S+) in JVM (\d+)\n$/
+        assert matcher.matches()
+        assert matcher.group(1) == proto
+        jvms.add(matcher.group(2))
+      }
+    }
+    jvms.size() == 1
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc traces the archives extracted for a task [gradle #gradleVersion]"() {
+    given: "a project with the protos of two jars, extracted in parallel, with the trace enabled"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    // Content of their own, so that the extraction cache shared by the tests does not have them yet
+    String content = "syntax = \"proto3\";\n// ${UUID.randomUUID()}\n"
+    ['first', 'second'].each { String name ->
+      writeProtosJar(new File(projectDir, "libs/${name}.jar"), "com/example/${name}.proto", content)
+    }
+    new File(projectDir, "build.gradle") << """
+      |dependencies {
+      |  protobuf files('libs/first.jar', 'libs/second.jar')
+      |}
+      |""".stripMargin()
+
+    when: "extractProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "extractProto",
+      "-Pprotobuf.trace=true",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the trace has the extraction of each jar, attributed to the task"
+    result.task(":extractProto").outcome == TaskOutcome.SUCCESS
+    File reportDir = new File(projectDir, "build/reports/protobuf")
+    Map<String, Object> trace = new JsonSlurper().parse(new File(reportDir, "trace.json"))
+    List<Map<String, Object>> extractions = trace.traceEvents.findAll { it.ph == "X" && it.name == "extract archive" }
+    extractions*.args*.task == [":extractProto", ":extractProto"]
+    extractions*.args*.detail.collect { String path -> new File(path).name }.sort() == ["first.jar", "second.jar"]
+    new File(reportDir, "trace-summary.txt").text.contains(":extractProto")
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "identical extract tasks mirror the first one [useLinks #useLinks, gradle #gradleVersion]"() {
+    given: "two extract tasks with the same jar of protos as input"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    writeProtosJar(new File(projectDir, "libs/protos.jar"))
+    appendIdenticalExtractTasks(projectDir, useLinks)
+
+    when: "both are invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "firstExtract",
+      "secondExtract",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the second one mirrors the files of the first one"
+    result.task(":firstExtract").outcome == TaskOutcome.SUCCESS
+    result.task(":secondExtract").outcome == TaskOutcome.SUCCESS
+    result.output.contains(":secondExtract: reused the files extracted from the same inputs in ")
+    File first = new File(projectDir, "extracted/first/com/example/lib/lib.proto")
+    File second = new File(projectDir, "extracted/second/com/example/lib/lib.proto")
+    second.text == 'syntax = "proto3";\n'
+    Files.isSameFile(first.toPath(), second.toPath()) == useLinks
+
+    where:
+    [useLinks, gradleVersion] << [[false, true], GRADLE_VERSIONS.takeRight(1)].combinations()
+  }
+
+  @Unroll
+  void "an extract task extracts on its own when its identical task failed [gradle #gradleVersion]"() {
+    given: "two extract tasks with the same inputs, where the first one can't write a file"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    writeProtosJar(new File(projectDir, "libs/protos.jar"))
+    appendIdenticalExtractTasks(projectDir, false)
+    // A non-empty directory where the proto goes, out of the build dir so that Gradle keeps it
+    new File(projectDir, "extracted/first/com/example/lib/lib.proto/keep").with { File file ->
+      file.parentFile.mkdirs()
+      file.text = ""
+    }
+
+    when: "both are invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "firstExtract",
+      "secondExtract",
+      "--continue",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).buildAndFail()
+
+    then: "the second one extracts the protos itself"
+    result.task(":firstExtract").outcome == TaskOutcome.FAILED
+    result.task(":secondExtract").outcome == TaskOutcome.SUCCESS
+    !result.output.contains(":secondExtract: reused")
+    new File(projectDir, "extracted/second/com/example/lib/lib.proto").text == 'syntax = "proto3";\n'
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProject generates from a descriptor set [gradle #gradleVersion]"() {
+    given: "project from testProject, with generators run on their own"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProject')
+        .copyDirs('testProjectBase', 'testProject')
+        .build()
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.generateFromDescriptorSet = true
+      |  task.maxParallelInvocations = 2
+      |}
+      |""".stripMargin()
+
+    when: "build is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "build",
+      "--info",
+    ).build()
+
+    then: "it succeed, with one invocation per generator"
+    result.task(":build").outcome == TaskOutcome.SUCCESS
+    result.output.contains("protoc parse (")
+    result.output.contains("protoc protoc-gen-grpc (")
+    result.output.contains("protoc descriptor set (")
+    new File(projectDir, "build/generated/sources/proto/grpc/descriptor_set.desc").exists()
+
+    where:
+    gradleVersion << GRADLE_VERSIONS
+  }
+
   @Unroll
   void "testProjectBuildTimeProto should be successfully executed [gradle #gradleVersion]"() {
     given: "project from testProjectGeneratedProto"
@@ -287,6 +600,36 @@ class ProtobufJavaPluginTest extends Specification {
     gradleVersion << GRADLE_VERSIONS
   }
 
+  @Unroll
+  void "testProjectDependent extracts dependency protos with an artifact transform [gradle #gradleVersion]"() {
+    given: "project from testProject & testProjectDependent"
+    File testProjectStaging = ProtobufPluginTestHelper.projectBuilder(this, 'testProject')
+        .copyDirs('testProjectBase', 'testProject')
+        .build()
+    File testProjectDependentStaging = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectDependent')
+        .copyDirs('testProjectDependent')
+        .build()
+
+    File mainProjectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectDependentMain')
+        .copySubProjects(testProjectStaging, testProjectDependentStaging)
+        .build()
+
+    when: "build is invoked with the transform enabled"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      mainProjectDir,
+      gradleVersion,
+      "testProjectDependent:build",
+      "-Pprotobuf.extractWithTransform=true",
+    ).build()
+
+    then: "it succeed with the protos of protobuf-java extracted"
+    result.task(":testProjectDependent:build").outcome == TaskOutcome.SUCCESS
+    new File(testProjectDependentStaging, "build/extracted-include-protos/main/google/protobuf/any.proto").exists()
+
+    where:
+    gradleVersion << GRADLE_VERSIONS
+  }
+
   @Unroll
   void "testProjectDependent proto extraction with configuration cache [gradle #gradleVersion]"() {
     given: "project from testProject & testProjectDependent"
@@ -399,6 +742,376 @@ class ProtobufJavaPluginTest extends Specification {
     gradleVersion << GRADLE_VERSIONS
   }
 
+  @Unroll
+  void "testProjectFakeProtoc runs .jar protoc and plugins through trampolines [gradle #gradleVersion]"() {
+    given: "a project whose protoc and plugin paths are the jars of the fakes"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+
+    when: "build is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "build",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "it succeeds"
+    result.task(":build").outcome == TaskOutcome.SUCCESS
+
+    and: "protoc and the plugin ran from their jars"
+    File outputDir = new File(projectDir, "build/generated/sources/proto/main")
+    new File(outputDir, "java/com/example/hello.java").text
+        .startsWith("// Generated by fake protoc --java_out from com/example/hello.proto ")
+    new File(outputDir, "fake/com/example/world_fake.java").text ==
+        "// Generated by fake plugin from com/example/world.proto\n"
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc incrementally regenerates the dependents of changed protos [gradle #gradleVersion]"() {
+    given: "a project with incremental generation, where world.proto imports hello.proto"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.incrementalGeneration = true
+      |}
+      |""".stripMargin()
+    File protoDir = new File(projectDir, "src/main/proto/com/example")
+    File outputDir = new File(projectDir, "build/generated/sources/proto/main")
+    ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    when: "world.proto is edited"
+    new File(protoDir, "world.proto") << "// edited\n"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "only world.proto is regenerated"
+    result.output.contains(":generateProto: 0 removed proto(s), regenerating 1 of 2 proto(s)")
+    result.output.contains("protoc (com/example/world.proto) (")
+    !result.output.contains("protoc (com/example/hello.proto) (")
+
+    when: "hello.proto is edited"
+    new File(protoDir, "hello.proto") << "// edited\n"
+    result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "world.proto, which imports it, is regenerated too"
+    result.output.contains(":generateProto: 0 removed proto(s), regenerating 2 of 2 proto(s)")
+    result.output.contains("protoc (com/example/hello.proto) (")
+    result.output.contains("protoc (com/example/world.proto) (")
+
+    when: "world.proto is deleted"
+    new File(protoDir, "world.proto").delete()
+    result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "its outputs are removed and nothing is regenerated"
+    result.output.contains(":generateProto: 1 removed proto(s), regenerating 0 of 1 proto(s)")
+    !result.output.contains("protoc (com/example/hello.proto) (")
+    !new File(outputDir, "java/com/example/world.java").exists()
+    !new File(outputDir, "fake/com/example/world_fake.java").exists()
+    new File(outputDir, "java/com/example/hello.java").exists()
+    new File(outputDir, "fake/com/example/hello_fake.java").exists()
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc keeps the timestamps of unchanged outputs [gradle #gradleVersion]"() {
+    given: "a project whose protos were generated once"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+    File outputDir = new File(projectDir, "build/generated/sources/proto/main")
+    List<File> outputs = ["java/com/example/hello.java", "java/com/example/world.java",
+                          "fake/com/example/hello_fake.java", "fake/com/example/world_fake.java",].collect {
+      new File(outputDir, it)
+    }
+    // Back in time, so that a rewritten file can't end up with the same timestamp
+    outputs.each { it.setLastModified(System.currentTimeMillis() - 3_600_000) }
+    List<Long> lastModified = outputs*.lastModified()
+
+    when: "world.proto is edited, which only changes the output of the builtin for it"
+    new File(projectDir, "src/main/proto/com/example/world.proto") << "// edited\n"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "only that output is written again"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains(":generateProto: 1 of 4 generated file(s) changed, 0 deleted")
+    [outputs*.lastModified(), lastModified].transpose().collect { it[0] == it[1] } == [true, false, true, true]
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc passes the arguments of protoc in a file [gradle #gradleVersion]"() {
+    given: "a project that uses an argument file"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.useArgumentFile = true
+      |}
+      |""".stripMargin()
+
+    when: "generateProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "protoc runs once, with the argument file as its only argument"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains(", @${new File(projectDir, "build/tmp/generateProto/protoc.args").canonicalPath}]")
+    result.output.contains("protoc processes: 1 started")
+    new File(projectDir, "build/tmp/generateProto/protoc.args").readLines()
+        .findAll { it.endsWith(".proto") }
+        .collect { new File(it).name } == ["hello.proto", "world.proto"]
+
+    and: "both protos are generated"
+    File outputDir = new File(projectDir, "build/generated/sources/proto/main")
+    new File(outputDir, "java/com/example/hello.java").exists()
+    new File(outputDir, "fake/com/example/world_fake.java").text ==
+        "// Generated by fake plugin from com/example/world.proto\n"
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  @IgnoreIf({ Utils.isWindows() })
+  void "testProjectFakeProtoc replays the cached responses of the plugin [gradle #gradleVersion]"() {
+    given: "a project that caches plugin responses, and whose plugin writes its process id"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    // An option of its own, so that the cache shared by the tests does not have the responses yet
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.cachePluginResponses = true
+      |  task.plugins {
+      |    fake {
+      |      option 'reportJvm=true'
+      |      option 'run=${UUID.randomUUID()}'
+      |    }
+      |  }
+      |}
+      |""".stripMargin()
+    File fakeDir = new File(projectDir, "build/generated/sources/proto/main/fake/com/example")
+
+    when: "generateProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the plugin generates the files"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    Map<String, String> generated = fakeDir.listFiles().collectEntries { [(it.name): it.text] }
+    generated.keySet() == ["hello_fake.java", "world_fake.java"] as Set
+    generated.values().every { it.contains(" in JVM ") }
+
+    when: "generateProto runs again from scratch"
+    result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "clean",
+      "generateProto",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the files are the responses of the first run, with its process id"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    fakeDir.listFiles().collectEntries { [(it.name): it.text] } == generated
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "testProjectFakeProtoc generates identical source sets once [gradle #gradleVersion]"() {
+    given: "a second source set with the same protos, and generate tasks that reuse identical outputs"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    new File(projectDir, "build.gradle") << """
+      |sourceSets {
+      |  mirror {
+      |    proto {
+      |      srcDir 'src/main/proto'
+      |    }
+      |  }
+      |}
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.reuseIdenticalGeneration = true
+      |}
+      |""".stripMargin()
+
+    when: "both generate tasks are invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "generateMirrorProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the second one copies the files of the first one instead of running protoc"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.task(":generateMirrorProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains(":generateMirrorProto: reused the files generated from identical inputs in ")
+    File outputDir = new File(projectDir, "build/generated/sources/proto")
+    ["java/com/example/hello.java", "java/com/example/world.java",
+     "fake/com/example/hello_fake.java", "fake/com/example/world_fake.java",].every {
+      new File(outputDir, "mirror/${it}").text == new File(outputDir, "main/${it}").text
+    }
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  @IgnoreIf({ Utils.isWindows() || Runtime.version().feature() < 13 })
+  void "testProjectFakeProtoc runs the plugin with a class data sharing archive [gradle #gradleVersion]"() {
+    given: "a project that uses class data sharing"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    new File(projectDir, "build.gradle") << """
+      |protobuf.generateProtoTasks.all().configureEach { task ->
+      |  task.useClassDataSharing = true
+      |}
+      |""".stripMargin()
+
+    when: "generateProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(
+      projectDir,
+      gradleVersion,
+      "generateProto",
+      "--info",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ).build()
+
+    then: "the plugin runs through a trampoline that uses an archive, which the run created"
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    Matcher matcher = result.output =~
+        /Resolved artifact jar: (\S+fake-protoc-plugin\.jar)\. Using trampoline file: (\S+) with java executable (\S+)/
+    matcher.find()
+    String trampoline = new File(matcher.group(2)).text
+    trampoline.contains("-XX:SharedArchiveFile=")
+    File archive = new File((trampoline =~ /archive='([^']+)'/)[0][1] as String)
+    archive.isFile()
+
+    and: "the JVM of the trampoline loads the classes of the plugin from the archive"
+    Process process = [matcher.group(3), "-Xshare:on", "-XX:SharedArchiveFile=${archive.path}",
+                       "-Xlog:class+load=info", "-jar", matcher.group(1),].execute()
+    process.outputStream.close()
+    String output = process.inputStream.text
+    process.waitFor() == 0
+    output.contains("com.google.protobuf.gradle.fakes.FakeProtocPlugin source: shared objects file")
+
+    and: "the files are generated"
+    new File(projectDir, "build/generated/sources/proto/main/fake/com/example/world_fake.java").text ==
+        "// Generated by fake plugin from com/example/world.proto\n"
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
+  @Unroll
+  void "dependency protos are extracted and generated with the configuration cache [gradle #gradleVersion]"() {
+    given: "project from testProjectFakeProtoc, with a jar of protos as dependency"
+    File projectDir = ProtobufPluginTestHelper.projectBuilder(this, 'testProjectFakeProtoc')
+        .copyDirs('testProjectFakeProtoc')
+        .build()
+    writeProtosJar(new File(projectDir, "libs/protos.jar"))
+    new File(projectDir, "build.gradle") << """
+      |dependencies {
+      |  protobuf files('libs/protos.jar')
+      |}
+      |""".stripMargin()
+    String[] arguments = [
+      "generateProto",
+      "--configuration-cache",
+      "--configuration-cache-problems=fail",
+      *ProtobufPluginTestHelper.fakeProtocArguments,
+    ]
+
+    when: "generateProto is invoked"
+    BuildResult result = ProtobufPluginTestHelper.getGradleRunner(projectDir, gradleVersion, arguments).build()
+
+    then: "it succeeds without configuration cache problems"
+    result.task(":extractProto").outcome == TaskOutcome.SUCCESS
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    result.output.contains("Configuration cache entry stored")
+
+    when: "the outputs are deleted and generateProto is invoked again"
+    new File(projectDir, "build/extracted-protos").deleteDir()
+    new File(projectDir, "build/generated").deleteDir()
+    result = ProtobufPluginTestHelper.getGradleRunner(projectDir, gradleVersion, arguments).build()
+
+    then: "the configuration cache entry is reused, and the outputs are the same"
+    result.output.contains("Reusing configuration cache")
+    result.task(":extractProto").outcome == TaskOutcome.SUCCESS
+    result.task(":generateProto").outcome == TaskOutcome.SUCCESS
+    new File(projectDir, "build/extracted-protos/main/com/example/lib/lib.proto").text == 'syntax = "proto3";\n'
+    File generated = new File(projectDir, "build/generated/sources/proto/main")
+    new File(generated, "java/com/example/lib/lib.java").exists()
+    new File(generated, "java/com/example/hello.java").exists()
+    new File(generated, "fake/com/example/lib/lib_fake.java").text ==
+        "// Generated by fake plugin from com/example/lib/lib.proto\n"
+
+    where:
+    gradleVersion << GRADLE_VERSIONS.takeRight(1)
+  }
+
   @Unroll
   void "test proto generation is not up-to-date on dependency changes [gradle #gradleVersion]"() {
     given: "project from testProject"
@@ -595,6 +1308,132 @@ class ProtobufJavaPluginTest extends Specification {
     cmds.isEmpty()
   }
 
+  void "test argumentFileContent writes one argument per line"() {
+    expect: "arguments are written as is, one per line"
+    GenerateProtoTask.argumentFileContent(["-Isrc dir", "--java_out=out", "a.proto"]) ==
+        "-Isrc dir\n--java_out=out\na.proto\n"
+
+    and: "arguments with line breaks cannot be written"
+    GenerateProtoTask.argumentFileContent(["--java_out=out", "a\nb.proto"]) == null
+  }
+
+  void "test batchLabel only numbers batches when there are several"() {
+    expect: "a single batch keeps the plain protoc label"
+    ProtocRunner.batchLabel(0, 1) == "protoc"
+
+    and: "batches are numbered from one"
+    ProtocRunner.batchLabel(1, 3) == "protoc (batch 2 of 3)"
+  }
+
+  void "test generate proto tasks share the protoc process limiter"() {
+    given: "a basic project with java and com.google.protobuf"
+    Project project = setupBasicProject()
+
+    when: "project evaluated"
+    project.evaluate()
+    ProtocProcessLimiter limiter = project.tasks.generateProto.processLimiter.get()
+
+    then: "all tasks use the same service, which weighs JVM plugins"
+    limiter.is(project.tasks.generateTestProto.processLimiter.get())
+    limiter.weightMb(0) == 256
+    limiter.weightMb(2) == 256 + 2 * 512
+
+    when: "processes are started and stopped"
+    3.times { limiter.acquire(256) }
+    3.times { limiter.release(256) }
+
+    then: "none had to wait, as there is no limit unless one is set"
+    noExceptionThrown()
+  }
+
+  void "test pluginHostTrampoline forwards to the host and falls back to a new JVM"() {
+    given: "a running host"
+    PluginHostService.Endpoint host = new PluginHostService.Endpoint(null, null, 12345, "secret")
+
+    when: "the trampoline is generated"
+    String script = GenerateProtoTask.pluginHostTrampoline(host, "/opt/java's/bin/java", "/libs/plugin.jar")
+
+    then: "it connects to the host with its token"
+    script.startsWith("#!/usr/bin/env bash\n")
+    script.contains("/dev/tcp/127.0.0.1/12345")
+    script.contains("'secret' '/libs/plugin.jar'")
+
+    and: "it passes on the error output of the plugin, also when it succeeds"
+    script.contains('OK) cat "$request.out"; cat "$request.err" >&2; exit 0 ;;')
+
+    and: "it can run the plugin without the host"
+    script.contains("'/opt/java'\\''s/bin/java' -jar '/libs/plugin.jar' \"\$@\" < \"\$request\"")
+  }
+
+  @IgnoreIf({ Utils.isWindows() })
+  void "test the plugin host trampoline can only be read by the build user"() {
+    given: "a world-readable file where the trampoline goes"
+    File script = File.createTempFile("trampoline", ".sh")
+    script.deleteOnExit()
+    Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rw-r--r--"))
+
+    when: "the trampoline is written"
+    GenerateProtoTask.writeOwnerOnlyExecutable(script, "#!/usr/bin/env bash\n")
+
+    then: "only the owner can read or run it"
+    PosixFilePermissions.toString(Files.getPosixFilePermissions(script.toPath())) == "rwx------"
+    script.text == "#!/usr/bin/env bash\n"
+  }
+
+  @IgnoreIf({ Utils.isWindows() || Runtime.version().feature() >= 24 })
+  void "test the plugin host only runs the jars the build allowed"() {
+    given: "a running host"
+    Project project = setupBasicProject()
+    PluginHostService service = PluginHostService.register(project).get()
+    String javaExe = new File(System.getProperty("java.home"), "bin/java").path
+    PluginHostService.Endpoint host = service.hostFor(javaExe)
+    File request = project.file("request")
+    request.text = ""
+
+    when: "it is asked to run a jar before and after the build allowed it"
+    String before = askHost(host, "/libs/plugin.jar", request)
+    host.allow("/libs/plugin.jar")
+    String after = askHost(host, "/libs/plugin.jar", request)
+
+    then: "it refuses the jar until it is allowed"
+    before == "DENIED"
+    after.startsWith("FAIL ")
+    project.file("request.err").text.contains("cannot run /libs/plugin.jar")
+
+    cleanup:
+    service?.close()
+  }
+
+  void "test tool registry stages executables at content addressed paths"() {
+    given: "a project and two copies of the same executable"
+    Project project = setupBasicProject()
+    ToolRegistry registry = ToolRegistry.register(project).get()
+    File first = project.file("first/protoc.exe")
+    File second = project.file("second/protoc.exe")
+    [first, second].each { File file ->
+      file.parentFile.mkdirs()
+      file.text = "#!/bin/sh\n"
+    }
+
+    when: "both are staged"
+    File staged = new File(registry.stageArtifact(first))
+
+    then: "they share one read-only executable copy"
+    staged.path == registry.stageArtifact(second)
+    staged.name == "protoc.exe"
+    staged.parentFile.name == Utils.sha256(first)
+    staged.canExecute()
+    !staged.canWrite()
+
+    when: "a script is staged"
+    String script = registry.stageScript("plugin-trampoline.sh", "#!/bin/sh\n", "US-ASCII")
+
+    then: "it is staged once too"
+    new File(script).text == "#!/bin/sh\n"
+    script == registry.stageScript("plugin-trampoline.sh", "#!/bin/sh\n", "US-ASCII")
+    script != registry.stageScript("plugin-trampoline.sh", "#!/bin/sh\nexit 1\n", "US-ASCII")
+  }
+
   void "test getCmdLengthLimit returns correct limit for Windows"() {
     given: "Windows OS"
 
@@ -717,4 +1556,42 @@ class ProtobufJavaPluginTest extends Specification {
     project.apply plugin:'com.google.protobuf'
     return project
   }
+
+  private static String askHost(PluginHostService.Endpoint host, String jar, File request) {
+    new Socket(InetAddress.loopbackAddress, host.port).withCloseable { Socket socket ->
+      socket.outputStream.write([host.token, jar, request.path, "${request.path}.out", "${request.path}.err", ""]
+          .join("\n").getBytes("UTF-8"))
+      socket.outputStream.flush()
+      return new BufferedReader(new InputStreamReader(socket.inputStream, "UTF-8")).readLine()
+    }
+  }
+
+  private static void writeProtosJar(File jar) {
+    writeProtosJar(jar, "com/example/lib/lib.proto", 'syntax = "proto3";\n')
+  }
+
+  private static void writeProtosJar(File jar, String path, String content) {
+    jar.parentFile.mkdirs()
+    new ZipOutputStream(new FileOutputStream(jar)).withCloseable { ZipOutputStream zip ->
+      zip.putNextEntry(new ZipEntry(path))
+      zip.write(content.getBytes("UTF-8"))
+      zip.closeEntry()
+    }
+  }
+
+  private static void appendIdenticalExtractTasks(File projectDir, boolean useLinks) {
+    new File(projectDir, "build.gradle") << """
+      |['first', 'second'].each { String name ->
+      |  tasks.register("\${name}Extract", com.google.protobuf.gradle.ProtobufExtract) {
+      |    inputFiles.from('libs/protos.jar')
+      |    destDir = file("extracted/\${name}")
+      |    useLinks = ${useLinks}
+      |    reuseIdenticalExtraction = true
+      |  }
+      |}
+      |tasks.named('secondExtract') {
+      |  mustRunAfter('firstExtract')
+      |}
+      |""".stripMargin()
+  }
 }
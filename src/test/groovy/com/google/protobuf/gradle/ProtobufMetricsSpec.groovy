@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonSlurper
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Tests for ProtobufMetrics
+ */
+@CompileDynamic
+class ProtobufMetricsSpec extends Specification {
+  void 'test: the phases of the tasks it listens to are added up by name and reported when the build finishes'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    project.layout.buildDirectory.set(project.file("out"))
+    ProtobufMetrics metrics = ProtobufMetrics.register(project).get()
+    List<String> otherBuildPhases = []
+    PluginEvents.Listener otherBuild = { PluginEvents.Phase phase -> otherBuildPhases.add(phase.detail) }
+
+    when:
+    PluginEvents.Span task = PluginEvents.startTask(":generateProto", [metrics] as List<PluginEvents.Listener>)
+    PluginEvents.start("protoc", "batch 1").commandLength(100).exitStatus(0).end()
+    PluginEvents.start("protoc", "batch 2").commandLength(50).exitStatus(1).end()
+    PluginEvents.start("extract archive", "lib.jar").files(3).bytes(1024).end()
+    task.end()
+    PluginEvents.inTask(":other:generateProto", [otherBuild] as List<PluginEvents.Listener>) {
+      PluginEvents.start("protoc", "another build").commandLength(10).end()
+    }
+    PluginEvents.start("protoc", "outside of a task").commandLength(1).end()
+    metrics.close()
+    File reportFile = new File(project.projectDir, "out/reports/protobuf/metrics.json")
+    Map<String, Object> report = new JsonSlurper().parse(reportFile)
+
+    then:
+    report.task.count == 1
+    report.protoc.count == 2
+    report.protoc.commandLength == 150
+    report.protoc.failures == 1
+    report["extract archive"].files == 3
+    report["extract archive"].bytes == 1024
+    otherBuildPhases == ["another build"]
+  }
+
+  void 'test: the archives a task extracts in parallel are attributed to it'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    ProtobufMetrics metrics = ProtobufMetrics.register(project).get()
+    ProtoExtractionCache cache = ProtoExtractionCache.register(project).get()
+    List<File> archives = (1..3).collect { int i ->
+      File jar = project.file("lib${i}.jar")
+      new ZipOutputStream(new FileOutputStream(jar)).withCloseable { ZipOutputStream zip ->
+        zip.putNextEntry(new ZipEntry("lib${i}/a.proto"))
+        zip.write("syntax = \"proto3\";\n".getBytes("UTF-8"))
+        zip.putNextEntry(new ZipEntry("lib${i}/b.proto"))
+        zip.write("syntax = \"proto3\";\n".getBytes("UTF-8"))
+      }
+      return jar
+    }
+
+    when:
+    PluginEvents.Span task = PluginEvents.startTask(":extractProto", [metrics] as List<PluginEvents.Listener>)
+    cache.protosOf(archives)
+    task.end()
+    metrics.close()
+    Map<String, Object> report = new JsonSlurper().parse(project.file("build/reports/protobuf/metrics.json"))
+
+    then:
+    report["scan archive"].count == 3
+    report["extract archive"].count == 3
+    report["extract archive"].files == 6
+  }
+}
@@ -13,6 +13,30 @@ final class ProtobufPluginTestHelper {
     // do not instantiate
   }
 
+  /**
+   * Returns the jar of the fake protoc, to use as the path of protoc in test projects.
+   */
+  static File getFakeProtocJar() {
+    return new File(System.getProperty("fakeProtocJar"))
+  }
+
+  /**
+   * Returns the jar of the fake protoc plugin, to use as the path of plugins in test projects.
+   */
+  static File getFakeProtocPluginJar() {
+    return new File(System.getProperty("fakeProtocPluginJar"))
+  }
+
+  /**
+   * Returns the arguments that point testProjectFakeProtoc at the jars of the fakes.
+   */
+  static List<String> getFakeProtocArguments() {
+    return [
+        "-PfakeProtocJar=${fakeProtocJar.path}".toString(),
+        "-PfakeProtocPluginJar=${fakeProtocPluginJar.path}".toString(),
+    ]
+  }
+
   static void verifyProjectDir(File projectDir) {
     ['grpc', 'main', 'test'].each { String dir ->
       File generatedSrcDir = new File(projectDir.path, "build/generated/sources/proto/$dir")
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.json.JsonSlurper
+import groovy.transform.CompileDynamic
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+/**
+ * Tests for ProtobufTrace
+ */
+@CompileDynamic
+class ProtobufTraceSpec extends Specification {
+  private static final long MS = 1000000
+
+  void 'test: phases become slices on the rows of their threads'() {
+    given:
+    List<PluginEvents.Phase> phases = [
+        phase("task", ":app:generateProto", ":app:generateProto", 0, 100, "main", [:]),
+        phase("protoc", "protoc (batch 2 of 2)", ":app:generateProto", 30, 50, "worker 1",
+            [batch: 1L, queueWaitMillis: 10L, peakRssKb: 2048L]),
+    ]
+
+    when:
+    List<Map<String, Object>> events = ProtobufTrace.traceEvents(phases)
+    Map<String, Object> task = events.find { it.name == ":app:generateProto" }
+    Map<String, Object> protoc = events.find { it.name == "protoc" }
+    Map<String, Object> queued = events.find { it.name == "queued" }
+
+    then:
+    task.ts == 0
+    task.dur == 100000
+    protoc.ts == 30000
+    protoc.args.batch == 1
+    protoc.args.peakRssKb == 2048
+    protoc.tid != task.tid
+    queued.ts == 20000
+    queued.dur == 10000
+    queued.tid == protoc.tid
+    events.findAll { it.ph == "M" && it.name == "thread_name" }*.args*.name == ["main", "worker 1"]
+  }
+
+  void 'test: the summary has a row per task and the highest protoc concurrency'() {
+    given:
+    List<PluginEvents.Phase> phases = [
+        phase("task", ":a:generateProto", ":a:generateProto", 0, 100, "main", [:]),
+        phase("protoc", "protoc", ":a:generateProto", 10, 40, "main", [queueWaitMillis: 5L, peakRssKb: 4096L]),
+        phase("task", ":b:extractProto", ":b:extractProto", 20, 10, "other", [:]),
+        phase("protoc", "protoc", ":c:generateProto", 30, 40, "third", [:]),
+        phase("protoc", "protoc", ":c:generateProto", 80, 10, "third", [:]),
+    ]
+
+    when:
+    List<String> lines = ProtobufTrace.summary(phases).readLines()
+
+    then:
+    lines.size() == 5
+    lines[1].split(/\s+/) as List == [":a:generateProto", "100", "1", "40", "5", "4", "MB"]
+    lines[2].split(/\s+/) as List == [":b:extractProto", "10", "0", "0", "0", "-"]
+    lines[3].split(/\s+/) as List == [":c:generateProto", "0", "2", "50", "0", "-"]
+    lines[4] == "At most 2 protoc processes ran at once."
+  }
+
+  void 'test: the trace is written when the build finishes'() {
+    given:
+    Project project = ProjectBuilder.builder().build()
+    ProtobufTrace trace = ProtobufTrace.register(project).get()
+
+    when:
+    PluginEvents.Span task = PluginEvents.startTask(":generateProto", [trace] as List<PluginEvents.Listener>)
+    PluginEvents.start("protoc", "protoc").batch(0).exitStatus(0).end()
+    task.end()
+    trace.close()
+    File dir = new File(project.rootDir, "build/reports/protobuf")
+    Map<String, Object> json = new JsonSlurper().parse(new File(dir, "trace.json"))
+
+    then:
+    json.traceEvents.findAll { it.ph == "X" }*.args*.task == [":generateProto", ":generateProto"]
+    new File(dir, "trace-summary.txt").text.contains(":generateProto")
+  }
+
+  private static PluginEvents.Phase phase(String name, String detail, String task, long startMs, long durationMs,
+      String thread, Map<String, Long> values) {
+    return new PluginEvents.Phase(name, detail, task, startMs, startMs * MS, durationMs * MS, thread, values)
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle
+
+import groovy.transform.CompileDynamic
+import spock.lang.Specification
+import spock.lang.TempDir
+
+/**
+ * Tests for StagedOutputs
+ */
+@CompileDynamic
+class StagedOutputsSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  void 'test: only changed files are written and stale files are deleted'() {
+    given:
+    File staging = new File(tempDir, "staging")
+    File output = new File(tempDir, "output")
+    write(new File(output, "java/Same.java"), "same")
+    write(new File(output, "java/Changed.java"), "old")
+    write(new File(output, "java/gone/Gone.java"), "gone")
+    new File(output, "java/Same.java").lastModified = 1000L
+    write(new File(staging, "java/Same.java"), "same")
+    write(new File(staging, "java/Changed.java"), "new")
+    write(new File(staging, "grpc/New.java"), "new")
+
+    when:
+    StagedOutputs.Result result = StagedOutputs.publishAll(staging, output)
+    int deleted = StagedOutputs.deleteStale(output, result.files)
+
+    then:
+    result.files == ['grpc/New.java', 'java/Changed.java', 'java/Same.java']
+    result.written == 2
+    deleted == 1
+    new File(output, "java/Same.java").lastModified() == 1000L
+    new File(output, "java/Changed.java").text == "new"
+    new File(output, "grpc/New.java").text == "new"
+    !new File(output, "java/gone").exists()
+    StagedOutputs.listFiles(output) == result.files
+  }
+
+  void 'test: files are only copied when their content differs'() {
+    given:
+    File source = new File(tempDir, "cache/a/foo.proto")
+    File target = new File(tempDir, "dest/a/foo.proto")
+    write(source, "foo")
+
+    expect:
+    StagedOutputs.copy(source, target)
+    target.text == "foo"
+
+    when:
+    target.lastModified = 1000L
+
+    then:
+    !StagedOutputs.copy(source, target)
+    target.lastModified() == 1000L
+    source.text == "foo"
+  }
+
+  void 'test: linked files become copies again when copied'() {
+    given:
+    File source = new File(tempDir, "cache/a/foo.proto")
+    File target = new File(tempDir, "dest/a/foo.proto")
+    write(source, "foo")
+
+    expect:
+    StagedOutputs.link(source, target)
+    target.text == "foo"
+    !StagedOutputs.link(source, target)
+    StagedOutputs.listFiles(new File(tempDir, "dest")) == ['a/foo.proto']
+
+    when:
+    boolean copied = StagedOutputs.copy(source, target)
+    target.text = "bar"
+
+    then:
+    copied
+    source.text == "foo"
+  }
+
+  void 'test: links to an evicted or changed cache entry become copies again when copied'() {
+    given:
+    File source = new File(tempDir, "cache/new/foo.proto")
+    File evicted = new File(tempDir, "cache/evicted/foo.proto")
+    File changed = new File(tempDir, "cache/changed/foo.proto")
+    File evictedTarget = new File(tempDir, "dest/evicted/foo.proto")
+    File changedTarget = new File(tempDir, "dest/changed/foo.proto")
+    write(source, "foo")
+    write(evicted, "foo")
+    write(changed, "foo")
+    StagedOutputs.link(evicted, evictedTarget)
+    StagedOutputs.link(changed, changedTarget)
+    evicted.delete()
+
+    expect: "a file that is no longer linked to anything is left alone"
+    !StagedOutputs.copy(source, evictedTarget)
+
+    when: "a file still linked to an old entry is copied"
+    boolean copied = StagedOutputs.copy(source, changedTarget)
+    changed.text = "changed"
+
+    then: "it no longer changes with the entry"
+    copied
+    changedTarget.text == "foo"
+  }
+
+  private static void write(File file, String text) {
+    file.parentFile.mkdirs()
+    file.text = text
+  }
+}
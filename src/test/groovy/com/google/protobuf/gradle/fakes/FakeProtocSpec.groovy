@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2026, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.google.protobuf.gradle.fakes
+
+import groovy.transform.CompileDynamic
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.util.zip.ZipFile
+
+/**
+ * Tests for the fake protoc and plugin
+ */
+@CompileDynamic
+class FakeProtocSpec extends Specification {
+  @TempDir
+  File tempDir
+
+  void 'test: builtins write a file per proto that only depends on the flags and the proto'() {
+    given:
+    File src = new File(tempDir, "src")
+    new File(src, "a").mkdirs()
+    File proto = new File(src, "a/foo.proto")
+    proto.text = 'syntax = "proto3";'
+    File out = new File(tempDir, "out")
+    String[] args = ["-I${src}", "--java_out=lite:${out}/java", "--python_out=${out}/python.zip", proto.path]
+
+    when:
+    int status = FakeProtoc.run(args*.toString() as String[], System.err)
+    String java = new File(out, "java/a/foo.java").text
+
+    then:
+    status == 0
+    java.startsWith("// Generated by fake protoc --java_out with lite from a/foo.proto")
+    new ZipFile(new File(out, "python.zip")).withCloseable { it.entries()*.name } == ["a/foo_pb2.py"]
+
+    when:
+    FakeProtoc.run(args*.toString() as String[], System.err)
+
+    then:
+    new File(out, "java/a/foo.java").text == java
+  }
+
+  void 'test: missing plugins and simulated failures fail like protoc'() {
+    given:
+    File proto = new File(tempDir, "foo.proto")
+    proto.text = 'syntax = "proto3";'
+    ByteArrayOutputStream err = new ByteArrayOutputStream()
+
+    expect:
+    FakeProtoc.run(["-I${tempDir}", "--nonexistent_out=${tempDir}", proto.path]*.toString() as String[],
+        new PrintStream(err, true)) == 1
+    err.toString().contains("protoc-gen-nonexistent: program not found or is not executable")
+  }
+
+  void 'test: the plugin answers a CodeGeneratorRequest with a file per proto or an error'() {
+    given:
+    byte[] request = new Wire().string(1, "a/foo.proto").string(1, "a/bar.proto").string(2, "lite").toByteArray()
+    byte[] failing = new Wire().string(1, "a/foo.proto").string(2, "failOn=foo").toByteArray()
+    byte[] reporting = new Wire().string(1, "a/foo.proto").string(2, "reportJvm=true").toByteArray()
+
+    when:
+    List<Wire.Field> response = Wire.parse(FakeProtocPlugin.respond(request))
+    List<Wire.Field> error = Wire.parse(FakeProtocPlugin.respond(failing))
+    List<Wire.Field> reported = Wire.parse(FakeProtocPlugin.respond(reporting))
+
+    then:
+    response*.number == [15, 15]
+    Wire.parse(response[0].value)*.string() == [
+        "a/foo_fake.java", "// Generated by fake plugin with lite from a/foo.proto\n",
+    ]
+    error*.number == [1]
+    error[0].string() == "a/foo.proto: Simulated failure."
+    Wire.parse(reported[0].value)[1].string() ==
+        "// Generated by fake plugin from a/foo.proto in JVM ${ProcessHandle.current().pid()}\n"
+  }
+}